@@ -0,0 +1,77 @@
+package qlearning;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wumpusworld.MapGenerator;
+import wumpusworld.World;
+
+/**
+ * Benchmarks the parts of a QLearningAgent step: encoding the state,
+ * choosing an action and a whole step, learning or not, and a step of a
+ * PolicyAgent compiled from the same table. The agents play a map that
+ * has already been learned, and the world is restored after each step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentBenchmark {
+    private World w;
+    private World.Snapshot start;
+    private QLearningAgent agent;
+    private QLearningAgent frozenAgent;
+    private PolicyAgent policyAgent;
+    private QTable Q;
+    private int row;
+
+    @Setup
+    public void setup() {
+        Q = new OpenAddressingQTable();
+        for (int i = 0; i < 2000; ++i) {
+            World t = MapGenerator.getRandomMap(42).generateWorld();
+            QLearningAgent a = new QLearningAgent(t, Q, new Random(i));
+            for (int k = 0; k < 1000 && !t.gameOver(); ++k)
+                a.doAction();
+        }
+
+        w = MapGenerator.getRandomMap(42).generateWorld();
+        start = w.newSnapshot();
+        agent = new QLearningAgent(w, Q, new Random(42));
+        row = Q.getRow(agent.createState(w.getPlayerX(), w.getPlayerY()));
+
+        frozenAgent = new QLearningAgent(w, Q, new Random(42));
+        frozenAgent.setLearning(false);
+        policyAgent = new PolicyAgent(w, FrozenPolicy.compile(Q), new Random(42));
+    }
+
+    @Benchmark
+    public long createState() {
+        return agent.createState(w.getPlayerX(), w.getPlayerY());
+    }
+
+    @Benchmark
+    public int getBestAction() {
+        return agent.getBestAction(row);
+    }
+
+    @Benchmark
+    public void doAction() {
+        agent.doAction();
+        start.restore();
+    }
+
+    @Benchmark
+    public void doActionFrozen() {
+        frozenAgent.doAction();
+        start.restore();
+    }
+
+    @Benchmark
+    public void doActionPolicy() {
+        policyAgent.doAction();
+        start.restore();
+    }
+}
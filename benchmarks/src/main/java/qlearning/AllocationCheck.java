@@ -0,0 +1,119 @@
+package qlearning;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import wumpusworld.Agent;
+import wumpusworld.MapGenerator;
+import wumpusworld.MyAgent;
+import wumpusworld.World;
+
+/**
+ * Checks that an agent step on states that are already in the Q-table
+ * allocates nothing. Learning, frozen and policy agents play whole episodes
+ * of a set of learned maps, restarting each map after an episode, and the
+ * bytes allocated by the thread are counted around each episode once the
+ * JIT has warmed up. A learning agent still explores, so episodes that add
+ * states to the table are left out. Exits with status 1 if any counted
+ * step allocated.
+ *
+ * Run it from the benchmarks directory after mvn package:
+ *     java -cp target/benchmarks.jar qlearning.AllocationCheck
+ */
+public class AllocationCheck {
+    private static final int MAPS = 100;
+    private static final int TRAINING_EPISODES = 500;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 10;
+    private static final int ACTION_LIMIT = 1000;
+
+    public static void main(String[] args) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM does not count allocated bytes per thread");
+            System.exit(2);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        QTable Q = new OpenAddressingQTable();
+        World[] worlds = new World[MAPS];
+        World.Snapshot[] starts = new World.Snapshot[MAPS];
+        Agent[] agents = new Agent[MAPS];
+        Agent[] frozenAgents = new Agent[MAPS];
+        Agent[] policyAgents = new Agent[MAPS];
+        for (int i = 0; i < MAPS; ++i) {
+            worlds[i] = MapGenerator.getRandomMap(i).generateWorld();
+            starts[i] = worlds[i].newSnapshot();
+            agents[i] = new MyAgent(worlds[i], Q, new Random(i));
+            MyAgent frozen = new MyAgent(worlds[i], Q, new Random(i));
+            frozen.setLearning(false);
+            frozenAgents[i] = frozen;
+        }
+        for (int e = 0; e < TRAINING_EPISODES; ++e)
+            play(agents, worlds, starts);
+        FrozenPolicy policy = FrozenPolicy.compile(Q);
+        for (int i = 0; i < MAPS; ++i)
+            policyAgents[i] = new PolicyAgent(worlds[i], policy, new Random(i));
+
+        boolean failed = !check("doAction", agents, worlds, starts, Q, threads);
+        failed |= !check("doActionFrozen", frozenAgents, worlds, starts, Q, threads);
+        failed |= !check("doActionPolicy", policyAgents, worlds, starts, Q, threads);
+        if (failed)
+            System.exit(1);
+    }
+
+    /**
+     * Warms agents up and counts the bytes their steps allocate in the
+     * episodes that add no states to the table.
+     *
+     * @return Whether the counted steps allocated nothing
+     */
+    private static boolean check(String name, Agent[] agents, World[] worlds, World.Snapshot[] starts, QTable Q,
+            ThreadMXBean threads) {
+        long thread = Thread.currentThread().getId();
+        for (int r = 0; r < WARMUP_ROUNDS; ++r)
+            play(agents, worlds, starts);
+
+        long allocated = 0;
+        long steps = 0;
+        long skipped = 0;
+        for (int r = 0; r < ROUNDS; ++r) {
+            for (int i = 0; i < agents.length; ++i) {
+                int size = Q.size();
+                long before = threads.getThreadAllocatedBytes(thread);
+                int episodeSteps = play(agents[i], worlds[i], starts[i]);
+                long after = threads.getThreadAllocatedBytes(thread);
+                if (Q.size() != size) {
+                    skipped += episodeSteps;
+                } else {
+                    allocated += after - before;
+                    steps += episodeSteps;
+                }
+            }
+        }
+
+        System.out.println(name + ": " + allocated + " bytes allocated in " + steps + " steps ("
+                + skipped + " steps in episodes that added states not counted)");
+        return allocated == 0 && steps > 0;
+    }
+
+    private static void play(Agent[] agents, World[] worlds, World.Snapshot[] starts) {
+        for (int i = 0; i < agents.length; ++i)
+            play(agents[i], worlds[i], starts[i]);
+    }
+
+    /**
+     * Plays an episode from the start of a map.
+     *
+     * @return Number of steps
+     */
+    private static int play(Agent agent, World w, World.Snapshot start) {
+        start.restore();
+        int steps = 0;
+        while (steps < ACTION_LIMIT && !w.gameOver()) {
+            agent.doAction();
+            ++steps;
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,53 @@
+package qlearning;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks Q lookups and updates on a table of random states.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QTableBenchmark {
+    @Param({"open", "concurrent"})
+    public String table;
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private QTable Q;
+    private long[] states;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Q = table.equals("concurrent") ? new ConcurrentQTable() : new OpenAddressingQTable();
+        Random random = new Random(42);
+        states = new long[rows];
+        for (int i = 0; i < rows; ++i) {
+            states[i] = random.nextLong() & ((1L << 56) - 1);
+            Q.getRow(states[i]);
+        }
+    }
+
+    @Benchmark
+    public int lookup() {
+        return Q.findRow(nextState());
+    }
+
+    @Benchmark
+    public void update() {
+        int row = Q.getRow(nextState());
+        Q.update(row, 0, 1.0 + 0.5 * Q.max(row), 0.1);
+    }
+
+    private long nextState() {
+        next = (next + 1) % states.length;
+        return states[next];
+    }
+}
@@ -0,0 +1,68 @@
+package qlearning;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks saving and loading large Q-tables, with readQMatrix and
+ * writeQMatrix's file format. Loading maps the file; loadAndScan also
+ * reads every value, which is what a mapped table costs when all of it
+ * is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QTableFileBenchmark {
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private QTable Q;
+    private File file;
+    private File scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        Q = new OpenAddressingQTable(rows);
+        for (int i = 0; i < rows; ++i) {
+            int row = Q.getRow(random.nextLong() & ((1L << 56) - 1));
+            for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                Q.set(row, a, random.nextGaussian());
+        }
+
+        file = File.createTempFile("qtable", ".dat");
+        scratch = File.createTempFile("qtable", ".dat");
+        QTableFile.write(Q, file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        scratch.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        QTableFile.write(Q, scratch);
+    }
+
+    @Benchmark
+    public QTable load() throws IOException {
+        return QTableFile.read(file);
+    }
+
+    @Benchmark
+    public double loadAndScan() throws IOException {
+        QTable loaded = QTableFile.read(file);
+        double sum = 0;
+        for (int row = 0; row < loaded.size(); ++row)
+            sum += loaded.max(row);
+        return sum;
+    }
+}
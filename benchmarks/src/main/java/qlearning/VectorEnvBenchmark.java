@@ -0,0 +1,52 @@
+package qlearning;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wumpusworld.EpisodeSource;
+import wumpusworld.MapGenerator;
+import wumpusworld.World;
+
+/**
+ * Benchmarks one lockstep step of a VectorEnv with random actions. Divide by
+ * the number of worlds to compare with a World step in WorldBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorEnvBenchmark {
+    private static final int ACTION_LIMIT = 1000;
+
+    @Param({"1", "64", "1024"})
+    public int worlds;
+
+    private VectorEnv env;
+    private int[][] actions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        env = new VectorEnv(worlds, new EpisodeSource() {
+            @Override
+            public World createWorld(int episode) {
+                return MapGenerator.getRandomMap(episode).generateWorld();
+            }
+        }, 4, StateEncoder.SYMMETRY_NONE, ACTION_LIMIT);
+
+        Random random = new Random(42);
+        actions = new int[64][worlds];
+        for (int[] step : actions)
+            for (int i = 0; i < worlds; ++i)
+                step[i] = random.nextInt(QTable.ACTION_COUNT);
+    }
+
+    @Benchmark
+    public long step() {
+        next = (next + 1) & 63;
+        env.step(actions[next]);
+        return env.getStates()[0];
+    }
+}
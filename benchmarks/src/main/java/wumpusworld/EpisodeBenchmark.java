@@ -0,0 +1,55 @@
+package wumpusworld;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import qlearning.OpenAddressingQTable;
+import qlearning.QTable;
+
+/**
+ * Benchmarks a full learning episode on a random map, the unit
+ * of work in the sim mode. The Q-table is trained before the
+ * measurement so that most states are known.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EpisodeBenchmark 
+{
+    private static final int ACTION_LIMIT = 1000;
+    
+    private QTable Q;
+    private int episode;
+    
+    @Setup
+    public void setup()
+    {
+        Q = new OpenAddressingQTable();
+        for (episode = 0; episode < 20000; episode++)
+        {
+            runEpisode();
+        }
+    }
+    
+    @Benchmark
+    public int episode()
+    {
+        episode++;
+        return runEpisode();
+    }
+    
+    private int runEpisode()
+    {
+        World w = MapGenerator.getRandomMap(episode).generateWorld();
+        Agent a = new MyAgent(w, Q, new Random(episode));
+        int actions = 0;
+        while (!w.gameOver() && actions++ <= ACTION_LIMIT)
+        {
+            a.doAction();
+        }
+        return w.getScore();
+    }
+}
@@ -0,0 +1,66 @@
+package wumpusworld;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks World.doAction for each action type. Every call
+ * is followed by restoring a snapshot, so each invocation starts
+ * from the same state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBenchmark 
+{
+    @Param({"m", "s", "l", "r", "g", "c"})
+    public String action;
+    
+    private World w;
+    private World.Snapshot start;
+    private int code;
+    
+    @Setup
+    public void setup()
+    {
+        //Gold next to the start square, facing it.
+        WorldMap map = new WorldMap(4);
+        map.addWumpus(4, 1);
+        map.addGold(2, 1);
+        map.addPit(3, 3);
+        map.addPit(1, 4);
+        map.addPit(4, 4);
+        w = map.generateWorld();
+        if (action.equals(World.A_GRAB))
+        {
+            w.doAction(World.ACTION_MOVE);
+        }
+        start = w.newSnapshot();
+        code = World.getActionCode(action);
+    }
+    
+    @Benchmark
+    public boolean doAction()
+    {
+        boolean result = w.doAction(code);
+        start.restore();
+        return result;
+    }
+    
+    @Benchmark
+    public boolean doActionString()
+    {
+        boolean result = w.doAction(action);
+        start.restore();
+        return result;
+    }
+    
+    @Benchmark
+    public void restore()
+    {
+        start.restore();
+    }
+}
@@ -0,0 +1,65 @@
+package wumpusworld;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks creating maps and worlds. generateWorld
+ * builds the world hazard by hazard, poolWorld copies
+ * the map's template into a reused world. corpusMap
+ * reads a map from a mapped corpus instead of generating
+ * it with getRandomMap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldMapBenchmark 
+{
+    private static final int CORPUS_MAPS = 1 << 16;
+    
+    private WorldMap map;
+    private WorldPool pool;
+    private MapCorpus corpus;
+    private int seed;
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        map = MapGenerator.getRandomMap(42);
+        pool = new WorldPool();
+        
+        File file = File.createTempFile("corpus", ".bin");
+        file.deleteOnExit();
+        MapCorpus.generate(file, 4, MapGenerator.PIT_DENSITY, 0, CORPUS_MAPS, 1);
+        corpus = new MapCorpus(file);
+    }
+    
+    @Benchmark
+    public World generateWorld()
+    {
+        return map.generateWorld();
+    }
+    
+    @Benchmark
+    public World poolWorld()
+    {
+        return pool.getWorld(map);
+    }
+    
+    @Benchmark
+    public WorldMap getRandomMap()
+    {
+        return MapGenerator.getRandomMap(seed++);
+    }
+    
+    @Benchmark
+    public WorldMap corpusMap()
+    {
+        return corpus.getMap(seed++ & (CORPUS_MAPS - 1));
+    }
+}
@@ -0,0 +1,409 @@
+package qlearning;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Q-table that holds at most a fixed number of rows, so that long runs stay
+ * within a fixed heap budget.
+ *
+ * When the table is full, a new state takes the row of an evicted one. Rows
+ * are chosen for eviction by CLOCK with aged visit counts: every lookup of a
+ * row counts a visit, the clock hand halves the count of each row it passes,
+ * and the first row it finds with no visits left is evicted. Rows returned
+ * by the last PINNED lookups are never evicted, so a learner can hold on to
+ * the row of the previous state while it looks up the next one. Row numbers
+ * are otherwise only valid until the next lookup of a new state.
+ *
+ * With a spill file, evicted rows are written to disk (see SpillFile) and
+ * read back when their state is looked up again, so nothing learned is
+ * lost. Without one, evicted rows are dropped. The table itself only lists
+ * the rows in memory; getAllRows() also lists the spilled rows, for saving.
+ *
+ * Not thread-safe.
+ */
+public class BoundedQTable implements QTable {
+    private static final long EMPTY = -1L;
+    private static final int PINNED = 4;
+    private static final int MAX_VISITS = 255;
+
+    private final int capacity;
+    private final SpillFile spill;
+
+    private long[] slotKeys;
+    private int[] slotRows;
+    private int mask;
+
+    private long[] states;
+    private double[] values;
+    private byte[] visits;
+    private int size;
+    private int hand;
+    private final int[] pinned = new int[PINNED];
+    private int nextPin;
+    private final double[] reloaded = new double[ACTION_COUNT];
+    private final double[] evicted = new double[ACTION_COUNT];
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long reloads;
+
+    public BoundedQTable(int capacity) {
+        this(capacity, null, 1024);
+    }
+
+    /**
+     * Creates a table that spills evicted rows to a file, or drops them if
+     * the file is null. The file is replaced if it exists.
+     */
+    public BoundedQTable(int capacity, File spillFile) throws IOException {
+        this(capacity, spillFile != null ? new SpillFile(spillFile) : null, 1024);
+    }
+
+    /**
+     * Creates a table with the rows of another table. Rows beyond the
+     * capacity are evicted as they are added.
+     */
+    public BoundedQTable(QTable source, int capacity, File spillFile) throws IOException {
+        this(capacity, spillFile != null ? new SpillFile(spillFile) : null, source.size());
+        for (int row = 0; row < source.size(); ++row) {
+            int r = getRow(source.getState(row));
+            for (int a = 0; a < ACTION_COUNT; ++a)
+                set(r, a, source.get(row, a));
+        }
+        hits = 0;
+        misses = 0;
+    }
+
+    private BoundedQTable(int capacity, SpillFile spill, int expectedSize) {
+        if (capacity <= PINNED)
+            throw new IllegalArgumentException("Q-table capacity must be more than " + PINNED);
+        this.capacity = capacity;
+        this.spill = spill;
+
+        int rows = Math.max(16, Math.min(capacity, expectedSize));
+        states = new long[rows];
+        values = new double[rows * ACTION_COUNT];
+        visits = new byte[rows];
+        rehash(Integer.highestOneBit(rows * 2 - 1) << 1);
+        Arrays.fill(pinned, -1);
+    }
+
+    @Override
+    public int getRow(long state) {
+        int row = findRow(state);
+        if (row >= 0)
+            return row;
+        return insert(state, false);
+    }
+
+    /**
+     * Returns the row of a state, reading it back in if it was spilled.
+     */
+    @Override
+    public int findRow(long state) {
+        int slot = slot(state);
+        if (slotKeys[slot] == state) {
+            hits++;
+            int row = slotRows[slot];
+            if ((visits[row] & 0xff) < MAX_VISITS)
+                visits[row]++;
+            pin(row);
+            return row;
+        }
+
+        misses++;
+        if (spill == null)
+            return -1;
+        try {
+            if (!spill.get(state, reloaded))
+                return -1;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to read Q-table spill file", ex);
+        }
+        reloads++;
+        return insert(state, true);
+    }
+
+    @Override
+    public long getState(int row) {
+        return states[row];
+    }
+
+    @Override
+    public double get(int row, int action) {
+        return values[row * ACTION_COUNT + action];
+    }
+
+    @Override
+    public void set(int row, int action, double value) {
+        values[row * ACTION_COUNT + action] = value;
+    }
+
+    @Override
+    public void update(int row, int action, double target, double alpha) {
+        int i = row * ACTION_COUNT + action;
+        values[i] += alpha * (target - values[i]);
+    }
+
+    @Override
+    public double max(int row) {
+        int offset = row * ACTION_COUNT;
+        double max = values[offset];
+        for (int a = 1; a < ACTION_COUNT; ++a)
+            max = Math.max(max, values[offset + a]);
+        return max;
+    }
+
+    /**
+     * Not supported: rows are reused by other states when they are evicted,
+     * so a dirty row may no longer hold the state that changed.
+     */
+    @Override
+    public void setDirtyRows(DirtyRows dirty) {
+        throw new UnsupportedOperationException("Rows of a BoundedQTable can not be tracked");
+    }
+
+    /**
+     * Returns the number of rows in memory.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of lookups that found their state in memory.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups of states that were not in memory.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of states that were read back from the spill file.
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * Returns the number of states in the spill file.
+     */
+    public int getSpilledStates() {
+        return spill != null ? spill.size() : 0;
+    }
+
+    /**
+     * Returns the heap used by the table's arrays, in bytes.
+     */
+    public long getMemoryUsage() {
+        return states.length * (8L + 8L * ACTION_COUNT + 1) + slotKeys.length * 12L;
+    }
+
+    /**
+     * Returns a one-line summary of the metrics.
+     */
+    public String getMetrics() {
+        long lookups = hits + misses;
+        String line = "Q-table: " + size + "/" + capacity + " rows, "
+                + String.format("%.1f", getMemoryUsage() / 1048576.0) + " MB, hit rate "
+                + String.format("%.2f%%", lookups > 0 ? 100.0 * hits / lookups : 100.0)
+                + ", " + evictions + " evicted";
+        if (spill != null) {
+            line += ", " + spill.size() + " spilled (" + String.format("%.1f", spill.length() / 1048576.0)
+                    + " MB on disk), " + reloads + " reloaded";
+        }
+        return line;
+    }
+
+    /**
+     * Returns the rows in memory followed by the rows that are only in the
+     * spill file. Use them to save the whole table, and do not change this
+     * table while they are in use.
+     */
+    public QRows getAllRows() throws IOException {
+        if (spill == null)
+            return this;
+
+        int[] spilled = new int[spill.size()];
+        int count = 0;
+        for (int slot = 0; slot < spill.slots(); ++slot) {
+            long state = spill.getState(slot);
+            if (state != EMPTY && slotKeys[slot(state)] != state)
+                spilled[count++] = slot;
+        }
+        return new AllRows(Arrays.copyOf(spilled, count));
+    }
+
+    /**
+     * Deletes the spill file.
+     */
+    public void close() throws IOException {
+        if (spill != null)
+            spill.close();
+    }
+
+    private int insert(long state, boolean reload) {
+        int row = size < capacity ? allocateRow() : evictRow();
+
+        int slot = slot(state);
+        slotKeys[slot] = state;
+        slotRows[slot] = row;
+        states[row] = state;
+        for (int a = 0; a < ACTION_COUNT; ++a)
+            values[row * ACTION_COUNT + a] = reload ? reloaded[a] : 0;
+        visits[row] = 1;
+        pin(row);
+        return row;
+    }
+
+    private int allocateRow() {
+        if (size == states.length) {
+            int rows = (int) Math.min(capacity, states.length * 2L);
+            states = Arrays.copyOf(states, rows);
+            values = Arrays.copyOf(values, rows * ACTION_COUNT);
+            visits = Arrays.copyOf(visits, rows);
+        }
+        if ((size + 1) * 2 > slotKeys.length)
+            rehash(slotKeys.length * 2);
+        return size++;
+    }
+
+    private int evictRow() {
+        while (true) {
+            int row = hand;
+            hand = hand + 1 == size ? 0 : hand + 1;
+            if (isPinned(row))
+                continue;
+            if (visits[row] != 0) {
+                visits[row] = (byte) ((visits[row] & 0xff) >>> 1);
+                continue;
+            }
+
+            evictions++;
+            remove(states[row]);
+            if (spill != null) {
+                System.arraycopy(values, row * ACTION_COUNT, evicted, 0, ACTION_COUNT);
+                try {
+                    spill.put(states[row], evicted);
+                } catch (IOException ex) {
+                    throw new IllegalStateException("Failed to write Q-table spill file", ex);
+                }
+            }
+            return row;
+        }
+    }
+
+    private void pin(int row) {
+        pinned[nextPin] = row;
+        nextPin = (nextPin + 1) % PINNED;
+    }
+
+    private boolean isPinned(int row) {
+        for (int p : pinned) {
+            if (p == row)
+                return true;
+        }
+        return false;
+    }
+
+    private int slot(long state) {
+        int slot = (int) OpenAddressingQTable.mix(state) & mask;
+        while (slotKeys[slot] != state && slotKeys[slot] != EMPTY)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Removes a state from the index, moving back the states after it that
+     * would otherwise no longer be found.
+     */
+    private void remove(long state) {
+        int hole = slot(state);
+        int next = (hole + 1) & mask;
+        while (slotKeys[next] != EMPTY) {
+            int home = (int) OpenAddressingQTable.mix(slotKeys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                slotKeys[hole] = slotKeys[next];
+                slotRows[hole] = slotRows[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        slotKeys[hole] = EMPTY;
+    }
+
+    private void rehash(int slots) {
+        slotKeys = new long[slots];
+        slotRows = new int[slots];
+        Arrays.fill(slotKeys, EMPTY);
+        mask = slots - 1;
+        for (int row = 0; row < size; ++row) {
+            int slot = slot(states[row]);
+            slotKeys[slot] = states[row];
+            slotRows[slot] = row;
+        }
+    }
+
+    /**
+     * The rows in memory followed by the rows only in the spill file.
+     */
+    private class AllRows implements QRows {
+        private final int[] spilled;
+        private int cachedSlot = -1;
+        private final double[] cached = new double[ACTION_COUNT];
+
+        AllRows(int[] spilled) {
+            this.spilled = spilled;
+        }
+
+        @Override
+        public long getState(int row) {
+            if (row < size)
+                return states[row];
+            try {
+                return spill.getState(spilled[row - size]);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to read Q-table spill file", ex);
+            }
+        }
+
+        @Override
+        public double get(int row, int action) {
+            if (row < size)
+                return values[row * ACTION_COUNT + action];
+            int slot = spilled[row - size];
+            if (slot != cachedSlot) {
+                try {
+                    spill.getValues(slot, cached);
+                } catch (IOException ex) {
+                    throw new IllegalStateException("Failed to read Q-table spill file", ex);
+                }
+                cachedSlot = slot;
+            }
+            return cached[action];
+        }
+
+        @Override
+        public int size() {
+            return size + spilled.length;
+        }
+    }
+}
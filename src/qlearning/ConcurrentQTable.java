@@ -0,0 +1,230 @@
+package qlearning;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Q-table that any number of learner threads can share.
+ *
+ * Q-values are stored as the raw bits of each double in pages of
+ * AtomicLongArray. Reads never lock, and update() applies the TD step with
+ * a compare-and-set loop, so concurrent updates of the same value are never
+ * lost. The state index is split into stripes by hash; each stripe is an
+ * open addressing table that is read without locking and only locked while
+ * inserting a new state. Pages are allocated on demand, so rows never move.
+ */
+public class ConcurrentQTable implements QTable {
+    private static final long EMPTY = -1L;
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_ROWS = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << 15;
+
+    /**
+     * One stripe of the state index. Slots are published by writing the row
+     * before the key, so a reader that sees a key also sees its row. A full
+     * stripe is replaced by a larger copy rather than resized in place.
+     */
+    private static class Stripe {
+        final AtomicLongArray keys;
+        final AtomicIntegerArray rows;
+        final int mask;
+        int count;
+
+        Stripe(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            rows = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; ++i)
+                keys.set(i, EMPTY);
+        }
+
+        int find(long state, int hash) {
+            int slot = hash & mask;
+            while (true) {
+                long key = keys.get(slot);
+                if (key == state)
+                    return rows.get(slot);
+                if (key == EMPTY)
+                    return -1;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        void insert(long state, int hash, int row) {
+            int slot = hash & mask;
+            while (keys.get(slot) != EMPTY)
+                slot = (slot + 1) & mask;
+            rows.set(slot, row);
+            keys.set(slot, state);
+            count++;
+        }
+    }
+
+    private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final Object[] locks = new Object[STRIPES];
+    private final AtomicReferenceArray<AtomicLongArray> statePages = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicReferenceArray<AtomicLongArray> valuePages = new AtomicReferenceArray<>(MAX_PAGES);
+    // Rows below this have their pages and state written.
+    private volatile int rowCount;
+    private final Object allocationLock = new Object();
+    private DirtyRows dirty;
+
+    public ConcurrentQTable() {
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes.set(i, new Stripe(16));
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Creates a copy of another table. Rows keep their numbers.
+     */
+    public ConcurrentQTable(QTable source) {
+        this();
+        for (int row = 0; row < source.size(); ++row) {
+            getRow(source.getState(row));
+            for (int a = 0; a < ACTION_COUNT; ++a)
+                set(row, a, source.get(row, a));
+        }
+    }
+
+    @Override
+    public int getRow(long state) {
+        long hash = OpenAddressingQTable.mix(state);
+        int stripe = (int) (hash >>> (64 - STRIPE_BITS));
+        int row = stripes.get(stripe).find(state, (int) hash);
+        if (row >= 0)
+            return row;
+
+        synchronized (locks[stripe]) {
+            Stripe s = stripes.get(stripe);
+            row = s.find(state, (int) hash);
+            if (row >= 0)
+                return row;
+
+            row = allocateRow(state);
+            if ((s.count + 1) * 2 > s.mask + 1) {
+                s = grow(s);
+                s.insert(state, (int) hash, row);
+                stripes.set(stripe, s);
+            } else {
+                s.insert(state, (int) hash, row);
+            }
+            return row;
+        }
+    }
+
+    @Override
+    public int findRow(long state) {
+        long hash = OpenAddressingQTable.mix(state);
+        int stripe = (int) (hash >>> (64 - STRIPE_BITS));
+        int row = stripes.get(stripe).find(state, (int) hash);
+        if (row >= 0)
+            return row;
+
+        // The stripe may have been replaced while we probed the old one.
+        synchronized (locks[stripe]) {
+            return stripes.get(stripe).find(state, (int) hash);
+        }
+    }
+
+    @Override
+    public long getState(int row) {
+        return statePages.get(row >>> PAGE_BITS).get(row & (PAGE_ROWS - 1));
+    }
+
+    @Override
+    public double get(int row, int action) {
+        return Double.longBitsToDouble(valuePage(row).get(valueIndex(row, action)));
+    }
+
+    @Override
+    public void set(int row, int action, double value) {
+        valuePage(row).set(valueIndex(row, action), Double.doubleToRawLongBits(value));
+        if (dirty != null)
+            dirty.mark(row);
+    }
+
+    @Override
+    public void update(int row, int action, double target, double alpha) {
+        AtomicLongArray page = valuePage(row);
+        int i = valueIndex(row, action);
+        while (true) {
+            long bits = page.get(i);
+            double q = Double.longBitsToDouble(bits);
+            if (page.compareAndSet(i, bits, Double.doubleToRawLongBits(q + alpha * (target - q))))
+                break;
+        }
+        if (dirty != null)
+            dirty.mark(row);
+    }
+
+    @Override
+    public double max(int row) {
+        AtomicLongArray page = valuePage(row);
+        int offset = valueIndex(row, 0);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < ACTION_COUNT; ++a)
+            max = Math.max(max, Double.longBitsToDouble(page.get(offset + a)));
+        return max;
+    }
+
+    @Override
+    public void setDirtyRows(DirtyRows dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Returns the number of rows. Only rows whose pages and state have been
+     * written are counted, so rows below size() can be read while other
+     * threads insert.
+     */
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    private int allocateRow(long state) {
+        // Different stripes allocate concurrently, so rows are allocated
+        // under a lock of their own. A row is counted in size() only once
+        // its pages and state are written, so that readers looping over
+        // size() never see a half-made row.
+        synchronized (allocationLock) {
+            int row = rowCount;
+            int page = row >>> PAGE_BITS;
+            if (page >= MAX_PAGES)
+                throw new IllegalStateException("Q-table is full");
+            if (statePages.get(page) == null)
+                statePages.set(page, new AtomicLongArray(PAGE_ROWS));
+            if (valuePages.get(page) == null)
+                valuePages.set(page, new AtomicLongArray(PAGE_ROWS * ACTION_COUNT));
+
+            statePages.get(page).set(row & (PAGE_ROWS - 1), state);
+            rowCount = row + 1;
+            if (dirty != null)
+                dirty.mark(row);
+            return row;
+        }
+    }
+
+    private AtomicLongArray valuePage(int row) {
+        return valuePages.get(row >>> PAGE_BITS);
+    }
+
+    private static int valueIndex(int row, int action) {
+        return (row & (PAGE_ROWS - 1)) * ACTION_COUNT + action;
+    }
+
+    private static Stripe grow(Stripe s) {
+        Stripe g = new Stripe((s.mask + 1) * 2);
+        for (int slot = 0; slot <= s.mask; ++slot) {
+            long key = s.keys.get(slot);
+            if (key != EMPTY)
+                g.insert(key, (int) OpenAddressingQTable.mix(key), s.rows.get(slot));
+        }
+        return g;
+    }
+}
@@ -0,0 +1,68 @@
+package qlearning;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The rows of a Q-table that changed since they were last taken, one bit
+ * per row (see QTable.setDirtyRows() and QJournal).
+ *
+ * Bits are kept in pages of AtomicLongArray that are allocated on demand.
+ * Any number of threads can mark rows while one thread takes them: a row
+ * that is marked after its values are written, and taken before its values
+ * are read, is never missed, at worst it is taken twice.
+ */
+public class DirtyRows {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_ROWS = 1 << PAGE_BITS;
+    private static final int PAGE_WORDS = PAGE_ROWS >>> 6;
+
+    private final AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(1 << (31 - PAGE_BITS));
+
+    /**
+     * Marks a row as changed.
+     */
+    public void mark(int row) {
+        AtomicLongArray page = pages.get(row >>> PAGE_BITS);
+        if (page == null)
+            page = addPage(row >>> PAGE_BITS);
+        int i = (row >>> 6) & (PAGE_WORDS - 1);
+        long bit = 1L << row;
+        while (true) {
+            long word = page.get(i);
+            if ((word & bit) != 0 || page.compareAndSet(i, word, word | bit))
+                return;
+        }
+    }
+
+    /**
+     * Clears the marks of the 64 rows from 64 * block on, and returns them,
+     * with bit n set if row 64 * block + n was marked.
+     */
+    public long take(int block) {
+        AtomicLongArray page = pages.get(block >>> (PAGE_BITS - 6));
+        if (page == null)
+            return 0;
+        int i = block & (PAGE_WORDS - 1);
+        if (page.get(i) == 0)
+            return 0;
+        return page.getAndSet(i, 0);
+    }
+
+    /**
+     * Clears all marks.
+     */
+    public void clear() {
+        for (int p = 0; p < pages.length(); ++p) {
+            AtomicLongArray page = pages.get(p);
+            if (page != null)
+                for (int i = 0; i < PAGE_WORDS; ++i)
+                    page.set(i, 0);
+        }
+    }
+
+    private AtomicLongArray addPage(int p) {
+        pages.compareAndSet(p, null, new AtomicLongArray(PAGE_WORDS));
+        return pages.get(p);
+    }
+}
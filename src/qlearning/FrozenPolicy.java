@@ -0,0 +1,211 @@
+package qlearning;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Greedy policy compiled from a Q-table, for playing without learning. Each
+ * state maps to a byte with a bit set for every action that has the highest
+ * Q-value in that state.
+ *
+ * States are found through a perfect hash built by hash and displace: the
+ * states are hashed into buckets of about BUCKET_SIZE states, and each
+ * bucket, largest first, gets the smallest displacement that sends all its
+ * states to free slots. There are SLACK more slots than states, so that the
+ * last buckets still find free slots quickly in large tables. A lookup is
+ * two hashes and no probing. The
+ * states are stored as well, so that a state that is not in the policy is
+ * recognised; like a new row in a Q-table, all its actions are best.
+ *
+ * A policy never changes once compiled, so any number of threads can share
+ * it without locking.
+ */
+public class FrozenPolicy {
+    private static final int BUCKET_SIZE = 4;
+    private static final int MAX_DISPLACEMENT = 1 << 20;
+    // One free slot per SLACK states.
+    private static final int SLACK = 8;
+    private static final int MAX_SEEDS = 64;
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+    private static final int ALL_ACTIONS = (1 << QTable.ACTION_COUNT) - 1;
+
+    private final long seed;
+    private final int[] displacements;
+    private final long[] states;
+    private final byte[] actions;
+    private final int size;
+
+    private FrozenPolicy(long seed, int[] displacements, long[] states, byte[] actions, int size) {
+        this.seed = seed;
+        this.size = size;
+        this.displacements = displacements;
+        this.states = states;
+        this.actions = actions;
+    }
+
+    /**
+     * Compiles the greedy policy of a Q-table, or of any rows of Q-values.
+     * The rows are only read.
+     *
+     * @throws IllegalStateException if no perfect hash was found for the
+     *         states, such as if the table has a state more than once
+     */
+    public static FrozenPolicy compile(QRows Q) {
+        int n = Q.size();
+        long[] keys = new long[n];
+        for (int row = 0; row < n; ++row)
+            keys[row] = Q.getState(row);
+
+        int buckets = Math.max(1, (n + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        int[] displacements = new int[buckets];
+        int slotCount = Math.max(1, n + n / SLACK);
+        int[] slots = null;
+        long seed = 0;
+        for (int tries = 0; slots == null; ++tries) {
+            if (tries == MAX_SEEDS)
+                throw new IllegalStateException("No perfect hash found for " + n + " states after " + MAX_SEEDS + " seeds");
+            seed += GOLDEN;
+            slots = place(keys, seed, displacements, slotCount);
+        }
+
+        long[] states = new long[slotCount];
+        byte[] actions = new byte[states.length];
+        // Packed states only use the low 56 bits, so -1 can never be a state.
+        Arrays.fill(states, -1L);
+        for (int row = 0; row < n; ++row) {
+            states[slots[row]] = keys[row];
+            actions[slots[row]] = (byte) bestActions(Q, row);
+        }
+        return new FrozenPolicy(seed, displacements, states, actions, n);
+    }
+
+    /**
+     * Returns the best actions in a state, as a mask with bit a set for
+     * action a.
+     */
+    public int getActions(long state) {
+        long hash = OpenAddressingQTable.mix(state ^ seed);
+        int slot = slot(hash, displacements[bucket(hash, displacements.length)], states.length);
+        return states[slot] == state ? actions[slot] : ALL_ACTIONS;
+    }
+
+    /**
+     * Returns one of the best actions in a state, chosen at random if there
+     * are several.
+     */
+    public int getAction(long state, Random random) {
+        int best = getActions(state);
+        return QLearningAgent.nthAction(best, random.nextInt(Integer.bitCount(best)));
+    }
+
+    /**
+     * Returns the number of states in the policy.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the best actions in every state. Two
+     * policies with the same fingerprint play the same way, whatever order
+     * the rows of their Q-tables were in.
+     */
+    public long fingerprint() {
+        // Summed, so that the slots the states happen to get do not matter.
+        long h = 0;
+        for (int slot = 0; slot < states.length; ++slot) {
+            if (states[slot] != -1L)
+                h += OpenAddressingQTable.mix(states[slot] | (long) actions[slot] << 56);
+        }
+        return OpenAddressingQTable.mix(h ^ size);
+    }
+
+    /**
+     * Finds a displacement for every bucket. Returns the slot of every key,
+     * or null if some bucket could not be placed with this seed.
+     */
+    private static int[] place(long[] keys, long seed, int[] displacements, int slotCount) {
+        int n = keys.length;
+        int buckets = displacements.length;
+
+        // Sort the keys by bucket.
+        long[] hashes = new long[n];
+        int[] start = new int[buckets + 1];
+        for (int i = 0; i < n; ++i) {
+            hashes[i] = OpenAddressingQTable.mix(keys[i] ^ seed);
+            start[bucket(hashes[i], buckets) + 1]++;
+        }
+        int maxSize = 0;
+        for (int b = 0; b < buckets; ++b) {
+            maxSize = Math.max(maxSize, start[b + 1]);
+            start[b + 1] += start[b];
+        }
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(start, buckets);
+        for (int i = 0; i < n; ++i)
+            members[fill[bucket(hashes[i], buckets)]++] = i;
+
+        // Order the buckets by size, largest first.
+        int[] sizeStart = new int[maxSize + 2];
+        for (int b = 0; b < buckets; ++b)
+            sizeStart[maxSize - (start[b + 1] - start[b]) + 1]++;
+        for (int s = 0; s <= maxSize; ++s)
+            sizeStart[s + 1] += sizeStart[s];
+        int[] order = new int[buckets];
+        for (int b = 0; b < buckets; ++b)
+            order[sizeStart[maxSize - (start[b + 1] - start[b])]++] = b;
+
+        boolean[] taken = new boolean[slotCount];
+        int[] slots = new int[n];
+        for (int b : order) {
+            int from = start[b];
+            int to = start[b + 1];
+            if (from == to)
+                break;
+
+            int d = 0;
+            while (!tryPlace(hashes, members, from, to, d, taken, slots)) {
+                if (++d == MAX_DISPLACEMENT)
+                    return null;
+            }
+            displacements[b] = d;
+        }
+        return slots;
+    }
+
+    private static boolean tryPlace(long[] hashes, int[] members, int from, int to, int d, boolean[] taken, int[] slots) {
+        for (int m = from; m < to; ++m) {
+            int i = members[m];
+            int slot = slot(hashes[i], d, taken.length);
+            if (taken[slot]) {
+                for (int k = from; k < m; ++k)
+                    taken[slots[members[k]]] = false;
+                return false;
+            }
+            taken[slot] = true;
+            slots[i] = slot;
+        }
+        return true;
+    }
+
+    private static int bucket(long hash, int buckets) {
+        return (int) (((hash >>> 32) * buckets) >>> 32);
+    }
+
+    private static int slot(long hash, int displacement, int slots) {
+        long h = OpenAddressingQTable.mix(hash + displacement * GOLDEN);
+        return (int) (((h & 0xffffffffL) * slots) >>> 32);
+    }
+
+    private static int bestActions(QRows Q, int row) {
+        double max = Q.get(row, 0);
+        for (int a = 1; a < QTable.ACTION_COUNT; ++a)
+            max = Math.max(max, Q.get(row, a));
+        int best = 0;
+        for (int a = 0; a < QTable.ACTION_COUNT; ++a) {
+            if (Q.get(row, a) == max)
+                best |= 1 << a;
+        }
+        return best;
+    }
+}
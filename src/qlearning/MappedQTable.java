@@ -0,0 +1,208 @@
+package qlearning;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Q-table served directly from a memory-mapped binary Q-table file (see
+ * QTableFile). Opening it only maps the file, nothing is parsed or copied.
+ * States in the file are found through the file's hash index and their
+ * values are read from the mapped records.
+ *
+ * Values are read in the precision of the file (see QTableFile), and
+ * values that are set are rounded to it.
+ *
+ * The file is mapped read-only and is never written to. Rows of the file
+ * that are set are copied into an in-memory OpenAddressingQTable keyed by
+ * row number, and a bit per row tells which rows to read from there. New
+ * states go into another OpenAddressingQTable, numbered after the states
+ * in the file.
+ *
+ * Windows can not replace a file while it is mapped, and a mapping is only
+ * released when the buffer is garbage collected, so tables that are saved
+ * back to their file should be read into memory instead (see QTableFile).
+ *
+ * Not thread-safe. Files must be smaller than 2 GB.
+ */
+public class MappedQTable implements QTable {
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int indexMask;
+    private final int indexOffset;
+    private final int headerSize;
+    private final int recordSize;
+    private final int valueType;
+    private final int fractionBits;
+    private final double step;
+    private final OpenAddressingQTable added = new OpenAddressingQTable();
+    // Values of the rows of the file that were set, keyed by row number.
+    private final OpenAddressingQTable updated = new OpenAddressingQTable(16);
+    private final long[] updatedRows;
+    private DirtyRows dirty;
+
+    public MappedQTable(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Q-table file is too large to map: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != QTableFile.MAGIC)
+            throw new IOException("Not a binary Q-table file: " + file);
+        int version = buffer.getInt(4);
+        if (version == 1) {
+            headerSize = QTableFile.V1_HEADER_SIZE;
+            valueType = QTableFile.VALUE_DOUBLE;
+            fractionBits = 0;
+        } else if (version == QTableFile.VERSION) {
+            headerSize = QTableFile.HEADER_SIZE;
+            valueType = buffer.getInt(32);
+            fractionBits = buffer.getInt(36);
+        } else {
+            throw new IOException("Unsupported Q-table version " + version + " in " + file);
+        }
+        recordSize = QTableFile.recordSize(valueType);
+        if (buffer.getInt(8) != ACTION_COUNT || buffer.getInt(12) != recordSize)
+            throw new IOException("Q-table record layout does not match in " + file);
+
+        count = buffer.getInt(16);
+        indexMask = buffer.getInt(20) - 1;
+        indexOffset = (int) buffer.getLong(24);
+        step = 1.0 / (1 << fractionBits);
+        updatedRows = new long[(count + 63) >>> 6];
+    }
+
+    public int getValueType() {
+        return valueType;
+    }
+
+    public int getFractionBits() {
+        return fractionBits;
+    }
+
+    @Override
+    public int getRow(long state) {
+        int row = findMapped(state);
+        if (row >= 0)
+            return row;
+        int size = added.size();
+        row = count + added.getRow(state);
+        if (dirty != null && added.size() > size)
+            dirty.mark(row);
+        return row;
+    }
+
+    @Override
+    public int findRow(long state) {
+        int row = findMapped(state);
+        if (row >= 0)
+            return row;
+        row = added.findRow(state);
+        return row < 0 ? -1 : count + row;
+    }
+
+    @Override
+    public long getState(int row) {
+        if (row >= count)
+            return added.getState(row - count);
+        return buffer.getLong(recordOffset(row));
+    }
+
+    @Override
+    public double get(int row, int action) {
+        if (row >= count)
+            return added.get(row - count, action);
+        if (isUpdated(row))
+            return updated.get(updated.findRow(row), action);
+        return value(recordOffset(row) + 8, action);
+    }
+
+    @Override
+    public void set(int row, int action, double value) {
+        if (valueType == QTableFile.VALUE_FLOAT)
+            value = (float) value;
+        else if (valueType == QTableFile.VALUE_SHORT)
+            value = QuantizedQTable.toShort(value, step) * step;
+
+        if (dirty != null)
+            dirty.mark(row);
+        if (row >= count) {
+            added.set(row - count, action, value);
+            return;
+        }
+
+        int copy;
+        if (isUpdated(row)) {
+            copy = updated.findRow(row);
+        } else {
+            copy = updated.getRow(row);
+            int offset = recordOffset(row) + 8;
+            for (int a = 0; a < ACTION_COUNT; ++a)
+                updated.set(copy, a, value(offset, a));
+            updatedRows[row >>> 6] |= 1L << row;
+        }
+
+        updated.set(copy, action, value);
+    }
+
+    @Override
+    public void update(int row, int action, double target, double alpha) {
+        double q = get(row, action);
+        set(row, action, q + alpha * (target - q));
+    }
+
+    @Override
+    public double max(int row) {
+        if (row >= count)
+            return added.max(row - count);
+        if (isUpdated(row))
+            return updated.max(updated.findRow(row));
+        int offset = recordOffset(row) + 8;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < ACTION_COUNT; ++a)
+            max = Math.max(max, value(offset, a));
+        return max;
+    }
+
+    @Override
+    public void setDirtyRows(DirtyRows dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public int size() {
+        return count + added.size();
+    }
+
+    private int findMapped(long state) {
+        int slot = (int) OpenAddressingQTable.mix(state) & indexMask;
+        while (true) {
+            int entry = buffer.getInt(indexOffset + 4 * slot);
+            if (entry == 0)
+                return -1;
+            if (buffer.getLong(recordOffset(entry - 1)) == state)
+                return entry - 1;
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private boolean isUpdated(int row) {
+        return (updatedRows[row >>> 6] & 1L << row) != 0;
+    }
+
+    private double value(int offset, int action) {
+        if (valueType == QTableFile.VALUE_FLOAT)
+            return buffer.getFloat(offset + 4 * action);
+        if (valueType == QTableFile.VALUE_SHORT)
+            return buffer.getShort(offset + 2 * action) * step;
+        return buffer.getDouble(offset + 8 * action);
+    }
+
+    private int recordOffset(int row) {
+        return headerSize + row * recordSize;
+    }
+}
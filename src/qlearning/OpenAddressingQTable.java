@@ -0,0 +1,170 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Q-table backed by primitive arrays. States are found through an open
+ * addressing (linear probing) index of packed state keys, and the Q-values
+ * of all rows are stored back to back in one flat double array.
+ *
+ * Not thread-safe.
+ */
+public class OpenAddressingQTable implements QTable {
+    // Packed states only use the low 56 bits, so -1 can never be a state.
+    private static final long EMPTY = -1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] slotKeys;
+    private int[] slotRows;
+    private int mask;
+
+    private long[] states;
+    private double[] values;
+    private int size;
+    private DirtyRows dirty;
+
+    public OpenAddressingQTable() {
+        this(1024);
+    }
+
+    public OpenAddressingQTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        slotKeys = new long[capacity];
+        slotRows = new int[capacity];
+        Arrays.fill(slotKeys, EMPTY);
+        mask = capacity - 1;
+
+        states = new long[Math.max(16, expectedSize)];
+        values = new double[states.length * ACTION_COUNT];
+    }
+
+    /**
+     * Creates a copy of another table. Rows keep their numbers.
+     */
+    public OpenAddressingQTable(QTable source) {
+        this(source.size());
+        for (int row = 0; row < source.size(); ++row) {
+            getRow(source.getState(row));
+            for (int a = 0; a < ACTION_COUNT; ++a)
+                values[row * ACTION_COUNT + a] = source.get(row, a);
+        }
+    }
+
+    @Override
+    public int getRow(long state) {
+        int slot = slot(state);
+        while (true) {
+            long key = slotKeys[slot];
+            if (key == state)
+                return slotRows[slot];
+            if (key == EMPTY)
+                break;
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == states.length) {
+            states = Arrays.copyOf(states, size * 2);
+            values = Arrays.copyOf(values, size * 2 * ACTION_COUNT);
+        }
+
+        int row = size++;
+        states[row] = state;
+        slotKeys[slot] = state;
+        slotRows[slot] = row;
+        if (dirty != null)
+            dirty.mark(row);
+
+        if (size > slotKeys.length * LOAD_FACTOR)
+            rehash(slotKeys.length * 2);
+
+        return row;
+    }
+
+    @Override
+    public int findRow(long state) {
+        int slot = slot(state);
+        while (true) {
+            long key = slotKeys[slot];
+            if (key == state)
+                return slotRows[slot];
+            if (key == EMPTY)
+                return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public long getState(int row) {
+        return states[row];
+    }
+
+    @Override
+    public double get(int row, int action) {
+        return values[row * ACTION_COUNT + action];
+    }
+
+    @Override
+    public void set(int row, int action, double value) {
+        values[row * ACTION_COUNT + action] = value;
+        if (dirty != null)
+            dirty.mark(row);
+    }
+
+    @Override
+    public void update(int row, int action, double target, double alpha) {
+        int i = row * ACTION_COUNT + action;
+        values[i] = values[i] + alpha * (target - values[i]);
+        if (dirty != null)
+            dirty.mark(row);
+    }
+
+    @Override
+    public double max(int row) {
+        int offset = row * ACTION_COUNT;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < ACTION_COUNT; ++a)
+            max = Math.max(max, values[offset + a]);
+        return max;
+    }
+
+    @Override
+    public void setDirtyRows(DirtyRows dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int slot(long state) {
+        return (int) mix(state) & mask;
+    }
+
+    private void rehash(int capacity) {
+        slotKeys = new long[capacity];
+        slotRows = new int[capacity];
+        Arrays.fill(slotKeys, EMPTY);
+        mask = capacity - 1;
+
+        for (int row = 0; row < size; ++row) {
+            int slot = slot(states[row]);
+            while (slotKeys[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            slotKeys[slot] = states[row];
+            slotRows[slot] = row;
+        }
+    }
+
+    /**
+     * Spreads the bits of a packed state (the MurmurHash3 finalizer).
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
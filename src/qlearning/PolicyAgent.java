@@ -0,0 +1,51 @@
+package qlearning;
+
+import java.util.Random;
+import wumpusworld.Agent;
+import wumpusworld.World;
+
+/**
+ * Agent that plays a compiled policy. It makes the same moves as a
+ * QLearningAgent that does not learn, given the same random generator, but
+ * never touches a Q-table. The policy must have been compiled from a table
+ * learned with the same symmetry reduction.
+ */
+public class PolicyAgent implements Agent {
+    private World w;
+    private StateEncoder encoder;
+    private FrozenPolicy policy;
+    private Random random;
+
+    public PolicyAgent(World world, FrozenPolicy policy, Random random) {
+        w = world;
+        encoder = StateEncoder.forSize(w.getSize(), QLearningAgent.getSymmetry());
+        this.policy = policy;
+        this.random = random;
+    }
+
+    @Override
+    public void doAction() {
+        if (w.gameOver())
+            return;
+
+        int x = w.getPlayerX();
+        int y = w.getPlayerY();
+        if (w.hasGlitter(x, y)) {
+            w.doAction(World.ACTION_GRAB);
+            return;
+        }
+        if (w.hasPit(x, y))
+            w.doAction(World.ACTION_CLIMB);
+
+        long s = encoder.encode(w, x, y);
+        int action = policy.getAction(s & StateEncoder.STATE_MASK, random);
+        w.doAction((s & StateEncoder.MIRRORED) != 0 ? StateEncoder.mirrorAction(action) : action);
+
+        x = w.getPlayerX();
+        y = w.getPlayerY();
+        if (w.hasGlitter(x, y))
+            w.doAction(World.ACTION_GRAB);
+        else if (w.hasPit(x, y))
+            w.doAction(World.ACTION_CLIMB);
+    }
+}
@@ -0,0 +1,315 @@
+package qlearning;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Write-ahead log for a Q-table saved in a snapshot file (see QTableFile).
+ *
+ * flush() appends the rows that changed since the previous flush to
+ * "snapshot.log", so saving costs time in proportion to what was learned
+ * rather than to the size of the table. The table marks the rows that are
+ * inserted or set (see QTable.setDirtyRows()), so a flush only reads the
+ * rows that changed, and the journal only keeps one bit per row.
+ *
+ * When the log grows larger than the snapshot it is compacted: the log is
+ * renamed to "snapshot.log.old", a new log is started, and a background
+ * thread writes a copy of the table to the snapshot (through an atomic
+ * rename), in the value type of the table, and then deletes the old log. If
+ * a compaction fails, the old log is kept, and the next compaction appends
+ * the log to it rather than replacing it. load() reads the snapshot and then
+ * replays the old log and the log, so a crash at any point loses at most
+ * the changes since the last flush. checkpoint() writes the whole table to
+ * the snapshot and removes both logs.
+ *
+ * Log records have the same layout as snapshot records: the packed state
+ * followed by one double per action.
+ */
+public class QJournal {
+    private static final int MAGIC = 0x5751544C; // "WQTL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final long MIN_COMPACT_SIZE = 4 << 20;
+
+    private final QTable Q;
+    private final File snapshot;
+    private final File log;
+    private final File oldLog;
+    private final long flushInterval;
+    private volatile long nextFlush;
+
+    private final DirtyRows dirty = new DirtyRows();
+    private FileOutputStream fos;
+    private DataOutputStream out;
+    private long logSize;
+    private Thread compaction;
+
+    /**
+     * Starts journaling changes to a table that was loaded from a snapshot.
+     *
+     * @param flushInterval Minimum time between flushes in flushIfDue(), in milliseconds
+     */
+    public QJournal(QTable Q, File snapshot, long flushInterval) throws IOException {
+        this.Q = Q;
+        this.snapshot = snapshot;
+        this.log = logFile(snapshot);
+        this.oldLog = oldLogFile(snapshot);
+        this.flushInterval = flushInterval;
+
+        // A compaction was interrupted. Save everything before starting over.
+        if (oldLog.exists())
+            checkpoint(Q, snapshot);
+
+        Q.setDirtyRows(dirty);
+        openLog();
+        nextFlush = System.currentTimeMillis() + flushInterval;
+    }
+
+    /**
+     * Loads a table from a snapshot and replays its logs. The snapshot is
+     * mapped (see MappedQTable).
+     */
+    public static QTable load(File snapshot) throws IOException {
+        return load(snapshot, true);
+    }
+
+    /**
+     * Loads a table from a snapshot and replays its logs.
+     *
+     * @param mapped Whether to map the snapshot, see QTableFile.read(File, boolean)
+     */
+    public static QTable load(File snapshot, boolean mapped) throws IOException {
+        QTable Q = QTableFile.read(snapshot, mapped);
+        replay(Q, oldLogFile(snapshot));
+        replay(Q, logFile(snapshot));
+        return Q;
+    }
+
+    /**
+     * Writes a whole table to a snapshot and removes its logs.
+     */
+    public static void checkpoint(QRows Q, File snapshot) throws IOException {
+        QTableFile.write(Q, snapshot);
+        deleteLogs(snapshot);
+    }
+
+    /**
+     * Writes a whole table to a snapshot with values of a type, and removes
+     * its logs.
+     *
+     * @param fractionBits Fraction bits of short values
+     */
+    public static void checkpoint(QRows Q, File snapshot, int valueType, int fractionBits) throws IOException {
+        QTableFile.write(Q, snapshot, valueType, fractionBits);
+        deleteLogs(snapshot);
+    }
+
+    private static void deleteLogs(File snapshot) throws IOException {
+        Files.deleteIfExists(oldLogFile(snapshot).toPath());
+        Files.deleteIfExists(logFile(snapshot).toPath());
+    }
+
+    /**
+     * Flushes if the flush interval has passed since the last flush. Safe
+     * to call from several threads; only one of them flushes.
+     */
+    public void flushIfDue() throws IOException {
+        if (System.currentTimeMillis() < nextFlush)
+            return;
+        synchronized (this) {
+            if (System.currentTimeMillis() < nextFlush)
+                return;
+            flush();
+        }
+    }
+
+    /**
+     * Appends the rows that changed since the last flush to the log, and
+     * forces them to disk.
+     */
+    public synchronized void flush() throws IOException {
+        // Rows are marked after they are written, so a row taken here is
+        // read with its latest values, and a row changed while it is read
+        // is marked again for the next flush.
+        int blocks = (Q.size() + 63) >>> 6;
+        for (int block = 0; block < blocks; ++block) {
+            long rows = dirty.take(block);
+            while (rows != 0) {
+                int row = (block << 6) + Long.numberOfTrailingZeros(rows);
+                rows &= rows - 1;
+                out.writeLong(Q.getState(row));
+                for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                    out.writeDouble(Q.get(row, a));
+                logSize += QTableFile.RECORD_SIZE;
+            }
+        }
+
+        out.flush();
+        fos.getFD().sync();
+        nextFlush = System.currentTimeMillis() + flushInterval;
+
+        // A finished compaction still holds its copy of the table.
+        if (compaction != null && !compaction.isAlive())
+            compaction = null;
+        if (logSize > Math.max(MIN_COMPACT_SIZE, snapshot.length()) && compaction == null)
+            startCompaction();
+    }
+
+    /**
+     * Writes the whole table to the snapshot and removes the logs.
+     */
+    public synchronized void checkpoint() throws IOException {
+        awaitCompaction();
+        out.close();
+        dirty.clear();
+        checkpoint(Q, snapshot);
+        openLog();
+    }
+
+    /**
+     * Flushes and closes the log, waiting for a running compaction.
+     */
+    public synchronized void close() throws IOException {
+        Q.setDirtyRows(null);
+        flush();
+        awaitCompaction();
+        out.close();
+    }
+
+    private void startCompaction() throws IOException {
+        out.close();
+        if (oldLog.exists()) {
+            // The last compaction failed, so the old log holds changes that
+            // are not in the snapshot yet.
+            append(log, oldLog);
+            Files.delete(log.toPath());
+        } else {
+            move(log, oldLog);
+        }
+        openLog();
+
+        final QTable copy;
+        final int valueType;
+        final int fractionBits;
+        if (Q instanceof QuantizedQTable) {
+            QuantizedQTable q = (QuantizedQTable) Q;
+            copy = new QuantizedQTable(Q, q.getValueType(), q.getFractionBits());
+            valueType = q.getValueType();
+            fractionBits = q.getFractionBits();
+        } else if (Q instanceof MappedQTable) {
+            MappedQTable q = (MappedQTable) Q;
+            copy = new OpenAddressingQTable(Q);
+            valueType = q.getValueType();
+            fractionBits = q.getFractionBits();
+        } else {
+            copy = new OpenAddressingQTable(Q);
+            valueType = QTableFile.VALUE_DOUBLE;
+            fractionBits = 0;
+        }
+        compaction = new Thread("Q-table compaction") {
+            @Override
+            public void run() {
+                try {
+                    QTableFile.write(copy, snapshot, valueType, fractionBits);
+                    Files.deleteIfExists(oldLog.toPath());
+                } catch (IOException ex) {
+                    // The old log is kept and replayed on the next load.
+                    System.err.println("Failed to compact Q-Matrix to " + snapshot);
+                }
+            }
+        };
+        compaction.start();
+    }
+
+    private void awaitCompaction() {
+        if (compaction == null)
+            return;
+        boolean interrupted = false;
+        while (compaction.isAlive()) {
+            try {
+                compaction.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        compaction = null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void openLog() throws IOException {
+        boolean empty = log.length() == 0;
+        fos = new FileOutputStream(log, true);
+        out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+        if (empty) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        }
+        logSize = log.length();
+    }
+
+    private static void replay(QTable Q, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a Q-table log: " + file);
+
+            double[] values = new double[QTable.ACTION_COUNT];
+            while (true) {
+                long state = in.readLong();
+                for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                    values[a] = in.readDouble();
+
+                int row = Q.getRow(state);
+                for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                    Q.set(row, a, values[a]);
+            }
+        } catch (FileNotFoundException ex) {
+            // No log to replay.
+        } catch (EOFException ex) {
+            // End of the log. A record cut short by a crash is dropped.
+        }
+    }
+
+    /**
+     * Appends the records of a log to another log, and forces them to disk.
+     */
+    private static void append(File from, File to) throws IOException {
+        try (FileInputStream in = new FileInputStream(from);
+                FileOutputStream appended = new FileOutputStream(to, true)) {
+            FileChannel source = in.getChannel();
+            long position = HEADER_SIZE;
+            while (position < source.size())
+                position += source.transferTo(position, source.size() - position, appended.getChannel());
+            appended.getFD().sync();
+        }
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File logFile(File snapshot) {
+        return new File(snapshot.getPath() + ".log");
+    }
+
+    private static File oldLogFile(File snapshot) {
+        return new File(snapshot.getPath() + ".log.old");
+    }
+}
@@ -1,53 +1,41 @@
 package qlearning;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map.Entry;
 import java.util.Random;
 import wumpusworld.*;
 
 public class QLearningAgent {
-    private static final String Q_FILE_PATH = "Q.dat";
+    // One Q-matrix per symmetry reduction, since their states differ.
+    private static final String[] Q_FILE_PATHS = { "Q.dat", "Q-egocentric.dat", "Q-mirror.dat" };
+    private static final int SYMMETRY = readSymmetry();
+    private static final String Q_FILE_PATH = Q_FILE_PATHS[SYMMETRY];
+    private static final int VALUE_TYPE = readValueType();
+    private static final int FRACTION_BITS = Config.getInt("QFractionBits", QuantizedQTable.DEFAULT_FRACTION_BITS);
+    // Set when the Q-matrix file exists but could not be read, so that it is not overwritten.
+    private static volatile boolean unreadable;
     
-    private static final int ACTION_MOVE = 0;
-    private static final int ACTION_SHOOT = 1;
-    private static final int ACTION_TURN_LEFT = 2;
-    private static final int ACTION_TURN_RIGHT = 3;
-    private static final int ACTION_COUNT = 4;
+    private static final int ACTION_MOVE = World.ACTION_MOVE;
+    private static final int ACTION_SHOOT = World.ACTION_SHOOT;
+    private static final int ACTION_TURN_LEFT = World.ACTION_TURN_LEFT;
+    private static final int ACTION_TURN_RIGHT = World.ACTION_TURN_RIGHT;
+    private static final int ACTION_COUNT = QTable.ACTION_COUNT;
     
-    private static final byte PERCEPT_BREEZY = 1;
-    private static final byte PERCEPT_STENCH = 2;
-    
-    private static final byte TYPE_NORMAL = 0;
-    private static final byte TYPE_UNKNOWN = 1;
-    private static final byte TYPE_WALL = 2;
-    
-    private static final byte HAZARD_WUMPUS = 1;
-    private static final byte HAZARD_PIT = 2;
-    
-    private static final double REWARD_EATEN = -1.0;
-    private static final double REWARD_GOLD = 1.0;
-    private static final double REWARD_PIT = -0.5;
-    private static final double REWARD_WUMPUS_KILLED = 0.1;
-    private static final double REWARD_ARROW_MISSED = -0.1;
-    private static final double REWARD_EXPLORED_TILE = 0.2;
-    private static final double REWARD_BUMPING_INTO_WALL = -0.1;
-    private static final double REWARD_FIRING_WITHOUT_AMMO = -0.1;
-    private static final double REWARD_TURNING = -0.01;
+    static final double REWARD_EATEN = -1.0;
+    static final double REWARD_GOLD = 1.0;
+    static final double REWARD_PIT = -0.5;
+    static final double REWARD_WUMPUS_KILLED = 0.1;
+    static final double REWARD_ARROW_MISSED = -0.1;
+    static final double REWARD_EXPLORED_TILE = 0.2;
+    static final double REWARD_BUMPING_INTO_WALL = -0.1;
+    static final double REWARD_FIRING_WITHOUT_AMMO = -0.1;
+    static final double REWARD_TURNING = -0.01;
     
     private static final double OPTIMAL_CHANCE = 0.99;
     
-    private static final int[][] NEIGHBOUR_COORDINATES = { {1, 0}, {0, 1}, {-1, 0}, {0, -1} };
-    private static final int[][] N2N_COORDINATES = { {2, 0}, {1, 1}, {0, 2}, {-1, 1}, {-2, 0}, {-1, -1}, {0, -2}, {1, -1} };
-    
     private static final double ALPHA = 0.1;
     private static final double GAMMA = 0.5;
     
@@ -66,6 +54,22 @@ public class QLearningAgent {
             
         }
         
+        public State(long packed) {
+            direction = field(packed, StateEncoder.SHIFT_DIRECTION);
+            percepts = field(packed, StateEncoder.SHIFT_PERCEPTS);
+            hazards = field(packed, StateEncoder.SHIFT_HAZARDS);
+            for (int i = 0; i < 4; ++i) {
+                neighbour_type[i] = field(packed, StateEncoder.SHIFT_NEIGHBOUR_TYPE + 2 * i);
+                neighbour_hazards[i] = field(packed, StateEncoder.SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+            }
+            for (int i = 0; i < 8; ++i) {
+                n2n_type[i] = field(packed, StateEncoder.SHIFT_N2N_TYPE + 2 * i);
+                n2n_percepts[i] = field(packed, StateEncoder.SHIFT_N2N_PERCEPTS + 2 * i);
+            }
+            wumpus_alive = ((packed >>> StateEncoder.SHIFT_WUMPUS_ALIVE) & 1) != 0;
+            has_arrow = ((packed >>> StateEncoder.SHIFT_HAS_ARROW) & 1) != 0;
+        }
+        
         public State(ObjectInputStream fis) throws IOException {
             direction = fis.readByte();
             percepts = fis.readByte();
@@ -90,6 +94,33 @@ public class QLearningAgent {
             fos.writeBoolean(has_arrow);
         }
         
+        /**
+         * Packs the state into the low 56 bits of a long, two bits per field.
+         */
+        public long pack() {
+            long packed = 0;
+            packed |= (long) (direction & 3) << StateEncoder.SHIFT_DIRECTION;
+            packed |= (long) (percepts & 3) << StateEncoder.SHIFT_PERCEPTS;
+            packed |= (long) (hazards & 3) << StateEncoder.SHIFT_HAZARDS;
+            for (int i = 0; i < 4; ++i) {
+                packed |= (long) (neighbour_type[i] & 3) << (StateEncoder.SHIFT_NEIGHBOUR_TYPE + 2 * i);
+                packed |= (long) (neighbour_hazards[i] & 3) << (StateEncoder.SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+            }
+            for (int i = 0; i < 8; ++i) {
+                packed |= (long) (n2n_type[i] & 3) << (StateEncoder.SHIFT_N2N_TYPE + 2 * i);
+                packed |= (long) (n2n_percepts[i] & 3) << (StateEncoder.SHIFT_N2N_PERCEPTS + 2 * i);
+            }
+            if (wumpus_alive)
+                packed |= 1L << StateEncoder.SHIFT_WUMPUS_ALIVE;
+            if (has_arrow)
+                packed |= 1L << StateEncoder.SHIFT_HAS_ARROW;
+            return packed;
+        }
+        
+        private static byte field(long packed, int shift) {
+            return (byte) ((packed >>> shift) & 3);
+        }
+        
         @Override
         public String toString() {
             return Integer.toString(hashCode());
@@ -151,24 +182,47 @@ public class QLearningAgent {
     }
     
     private World w;
+    private StateEncoder encoder;
+    private World.Snapshot previous;
     private Random random;
-    private HashMap<State, double[]> Q;
-    private boolean writeQOnGameEnd;
+    private QTable Q;
+    private double[] q_values = new double[ACTION_COUNT];
+    private QJournal journal;
+    private boolean learning = true;
     
     public QLearningAgent(World world) {
         w = world;
+        encoder = StateEncoder.forSize(w.getSize(), SYMMETRY);
+        previous = w.newSnapshot();
         random = new Random();
         Q = readQMatrix();
-        writeQOnGameEnd = true;
+        journal = openQJournal(Q, 0);
     }
     
-    public QLearningAgent(World world, HashMap<State, double[]> Q) {
+    public QLearningAgent(World world, QTable Q) {
         w = world;
+        encoder = StateEncoder.forSize(w.getSize(), SYMMETRY);
+        previous = w.newSnapshot();
         random = new Random();
         this.Q = Q;
-        writeQOnGameEnd = false;
     }
     
+    public QLearningAgent(World world, QTable Q, Random random) {
+        w = world;
+        encoder = StateEncoder.forSize(w.getSize(), SYMMETRY);
+        previous = w.newSnapshot();
+        this.random = random;
+        this.Q = Q;
+    }
+    
+    /**
+     * Turns learning on or off. An agent that does not learn never changes
+     * the Q-table and always picks one of the best actions, so that a table
+     * can be evaluated (and shared between threads) as it is.
+     */
+    public void setLearning(boolean learning) {
+        this.learning = learning;
+    }
     
     public void doAction() {
         int x1 = w.getPlayerX();
@@ -183,173 +237,115 @@ public class QLearningAgent {
         
         // Immediately grab gold on the first turn.
         if (w.hasGlitter(x1, y1)) {
-            w.doAction(World.A_GRAB);
+            w.doAction(World.ACTION_GRAB);
             return;
         }
         
         // Immediately climb out of the pit.
         if (w.hasPit(x1, y1)) {
-            w.doAction(World.A_CLIMB);
+            w.doAction(World.ACTION_CLIMB);
         }
         
         // Find the best action to do in our current state.
-        World previous_world = w.clone();
-        State s1 = createState(x1, y1);
+        previous.capture();
+        long s1 = createState(x1, y1);
+        long key1 = s1 & StateEncoder.STATE_MASK;
+        int row1 = learning ? Q.getRow(key1) : Q.findRow(key1);
+        int a1 = getBestAction(row1);
 
-        double[] q_values_1;
-        if (Q.containsKey(s1)) {
-            q_values_1 = Q.get(s1);
-        } else {
-            q_values_1 = new double[ACTION_COUNT];
-            Q.put(s1, q_values_1);
-        }
-
-        int a1 = getBestAction(q_values_1);
-
-        // Do the selected action.
-        w.doAction(getActionString(a1));
+        // Do the selected action. In a mirrored state left and right are swapped.
+        int action = (s1 & StateEncoder.MIRRORED) != 0 ? StateEncoder.mirrorAction(a1) : a1;
+        w.doAction(action);
         
         int x2 = w.getPlayerX();
         int y2 = w.getPlayerY();
         
         // Grab the gold if we've encountered it, climb out of pits if we're in them and there is no gold there.
         if (w.hasGlitter(x2, y2)) {
-            w.doAction(World.A_GRAB);
+            w.doAction(World.ACTION_GRAB);
         } else if (w.hasPit(x2, y2)) {
-            w.doAction(World.A_CLIMB);
+            w.doAction(World.ACTION_CLIMB);
         }
+        
+        if (!learning)
+            return;
 
         // Given the new state after making the action, find out if we are rewarded in the new state.
-        State s2 = createState(x2, y2);
-        double r = getReward(previous_world, a1);
+        long s2 = createState(x2, y2) & StateEncoder.STATE_MASK;
+        double r = getReward(previous, action);
         
-        //System.out.println(getActionString(a1) + " (" + getQValuesString(q_values_1, a1) + ") " + r);
+        //System.out.println(World.getActionString(a1) + " (" + getQValuesString(row1, a1) + ") " + r);
         
-        double[] q_values_2;
-        if (Q.containsKey(s2)) {
-            //System.out.println("Found existing state in Q-matrix");
-            q_values_2 = Q.get(s2);
-        } else {
-            q_values_2 = new double[ACTION_COUNT];
-            Q.put(s2, q_values_2);
-        }
+        int row2 = Q.getRow(s2);
         
         // Calculate the new Q-value for the taken action.
-        double max = Double.NEGATIVE_INFINITY;
-        for (int a2 = 0; a2 < q_values_2.length; ++a2)
-            max = Math.max(max, q_values_2[a2]);
-        q_values_1[a1] = q_values_1[a1] + ALPHA * (r + GAMMA * max - q_values_1[a1]);
+        double max = Q.max(row2);
+        Q.update(row1, a1, r + GAMMA * max, ALPHA);
         
-        // If the game has ended, write the Q matrix to file.
+        // If the game has ended, log the changed Q-values to file.
         if (w.gameOver())
         {
-            if (writeQOnGameEnd)
-                writeQMatrix(Q);
+            close();
             //System.out.println("-- Episode ended --");
         }
         
-        //System.out.println("New Q-Value = " + q_values_1[a1]);
+        //System.out.println("New Q-Value = " + Q.get(row1, a1));
     }
     
-    private State createState(int x, int y) {
-        State s = new State();
-
-        s.direction = (byte) w.getDirection();
-        if (w.hasBreeze(x, y))
-            s.percepts |= PERCEPT_BREEZY;
-        if (w.hasStench(x, y))
-            s.percepts |= PERCEPT_STENCH;
-        s.has_arrow = w.hasArrow();
-        s.wumpus_alive = w.wumpusAlive();
-        
-        if (w.hasPit(x, y))
-            s.hazards |= HAZARD_PIT;
-        if (w.hasWumpus(x, y))
-            s.hazards |= HAZARD_WUMPUS;
-        
-        // Check type and hazards of neighbours.
-        for (int i = 0; i < 4; ++i) {
-            int nx = x + NEIGHBOUR_COORDINATES[i][0];
-            int ny = y + NEIGHBOUR_COORDINATES[i][1];
-            
-            if (w.isValidPosition(nx, ny)) {
-                if (!w.isUnknown(nx, ny)) {
-                    s.neighbour_type[i] = TYPE_NORMAL;
-                    
-                    if (w.hasPit(nx, ny))
-                        s.neighbour_hazards[i] |= HAZARD_PIT;
-                    if (w.hasWumpus(nx, ny))
-                        s.neighbour_hazards[i] |= HAZARD_WUMPUS;
-                } else {
-                    s.neighbour_type[i] = TYPE_UNKNOWN;
-                    s.neighbour_hazards[i] = 0;
-                }
-            } else {
-                s.neighbour_type[i] = TYPE_WALL;
-                s.neighbour_hazards[i] = 0;
+    /**
+     * Logs the changed Q-values to file and closes the log, if the agent
+     * opened one. Call it when a game is left before it has ended.
+     */
+    public void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                System.err.println("Failed to write Q-Matrix log for " + Q_FILE_PATH);
             }
+            journal = null;
         }
-        
-        // Check percepts in our neighbours' neighbours.
-        for (int i = 0; i < 8; ++i) {
-            int nx = x + N2N_COORDINATES[i][0];
-            int ny = y + N2N_COORDINATES[i][1];
-            
-            if (w.isValidPosition(nx, ny)) {
-                if (!w.isUnknown(nx, ny)) {
-                    s.n2n_type[i] = TYPE_NORMAL;
-                    
-                    if (w.hasBreeze(nx, ny))
-                        s.n2n_percepts[i] |= PERCEPT_BREEZY;
-                    if (w.hasStench(nx, ny))
-                        s.n2n_percepts[i] |= PERCEPT_STENCH;
-                } else {
-                    s.n2n_type[i] = TYPE_UNKNOWN;
-                    s.n2n_percepts[i] = 0;
-                }
-            } else {
-                s.n2n_type[i] = TYPE_WALL;
-                s.n2n_percepts[i] = 0;
-            }
-        }
-        
-        return s;
     }
     
-    private int getBestAction(double[] qValues) {
-        ArrayList<Integer> best = new ArrayList<>();
-        ArrayList<Integer> not_best = new ArrayList<>();
-        
-        double max = Double.NEGATIVE_INFINITY;
-        for (int i = 0; i < qValues.length; ++i) {
-            max = Math.max(max, qValues[i]);
-        }
-        
-        for (int i = 0; i < qValues.length; ++i) {
-            if (qValues[i] == max) {
-                best.add(i);
-            } else {
-                not_best.add(i);
+    long createState(int x, int y) {
+        return encoder.encode(w, x, y);
+    }
+    
+    int getBestAction(int row) {
+        // A state that is not in the table has all values at zero.
+        int best = (1 << ACTION_COUNT) - 1;
+        if (row >= 0) {
+            // Read the row once, other threads may be updating it.
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < ACTION_COUNT; ++i) {
+                q_values[i] = Q.get(row, i);
+                max = Math.max(max, q_values[i]);
+            }
+            
+            best = 0;
+            for (int i = 0; i < ACTION_COUNT; ++i) {
+                if (q_values[i] == max)
+                    best |= 1 << i;
             }
         }
         
-        if (random.nextDouble() <= OPTIMAL_CHANCE || not_best.isEmpty()) 
-            return best.get(random.nextInt(best.size()));
+        int not_best = ~best & ((1 << ACTION_COUNT) - 1);
+        if (!learning || random.nextDouble() <= OPTIMAL_CHANCE || not_best == 0) 
+            return nthAction(best, random.nextInt(Integer.bitCount(best)));
         else
-            return not_best.get(random.nextInt(not_best.size()));
+            return nthAction(not_best, random.nextInt(Integer.bitCount(not_best)));
     }
     
-    private String getActionString(int action) {
-        switch (action) {
-            case ACTION_MOVE: return World.A_MOVE;
-            case ACTION_SHOOT: return World.A_SHOOT;
-            case ACTION_TURN_LEFT: return World.A_TURN_LEFT;
-            case ACTION_TURN_RIGHT: return World.A_TURN_RIGHT;
-            default: return "";
-        }
+    /**
+     * Returns the n:th (from 0) action whose bit is set in a mask of actions.
+     */
+    static int nthAction(int actions, int n) {
+        for (int i = 0; i < n; ++i)
+            actions &= actions - 1;
+        return Integer.numberOfTrailingZeros(actions);
     }
     
-    private double getReward(World previous, int action) {
+    private double getReward(World.Snapshot previous, int action) {
         if (action == ACTION_TURN_LEFT || action == ACTION_TURN_RIGHT)
             return REWARD_TURNING;
         if (action == ACTION_MOVE && w.getPlayerX() == previous.getPlayerX() && w.getPlayerY() == previous.getPlayerY())
@@ -376,54 +372,140 @@ public class QLearningAgent {
         return 0.0;
     }
 
-    public static HashMap<State, double[]> readQMatrix() {
-        HashMap<State, double[]> Q = new HashMap<>();
-        
-        try (ObjectInputStream fis = new ObjectInputStream(new FileInputStream(new File(Q_FILE_PATH)))) {
-            while (fis.available() > 0) {
-                State s = new State(fis);
+    /**
+     * Returns the symmetry reduction set in the config file (see the SYMMETRY
+     * constants of StateEncoder).
+     */
+    public static int getSymmetry() {
+        return SYMMETRY;
+    }
 
-                double[] q_values = new double[ACTION_COUNT];
-                for (int i = 0; i < ACTION_COUNT; ++i) {
-                    q_values[i] = fis.readDouble();
-                }
+    /**
+     * Returns the Q-matrix file for a symmetry reduction.
+     */
+    public static String getQFilePath(int symmetry) {
+        return Q_FILE_PATHS[symmetry];
+    }
 
-                Q.put(s, q_values);
-            }
-        } catch (FileNotFoundException ex) {
-            // Just let the Q-matrix be empty.
+    private static int readSymmetry() {
+        String symmetry = Config.getSymmetry();
+        if (symmetry.equals("egocentric"))
+            return StateEncoder.SYMMETRY_EGOCENTRIC;
+        if (symmetry.equals("mirror"))
+            return StateEncoder.SYMMETRY_MIRROR;
+        return StateEncoder.SYMMETRY_NONE;
+    }
+
+    /**
+     * Returns the precision Q-values are kept in as set in the config file
+     * (see the VALUE constants of QTableFile).
+     */
+    public static int getValueType() {
+        return VALUE_TYPE;
+    }
+
+    /**
+     * Returns the fraction bits of short Q-values set in the config file.
+     */
+    public static int getFractionBits() {
+        return FRACTION_BITS;
+    }
+
+    private static int readValueType() {
+        String type = Config.getQValueType();
+        if (type.equals("float"))
+            return QTableFile.VALUE_FLOAT;
+        if (type.equals("short"))
+            return QTableFile.VALUE_SHORT;
+        return QTableFile.VALUE_DOUBLE;
+    }
+
+    /**
+     * Reads the Q-matrix into memory, with its values in the precision set in the config file.
+     * If an existing Q-matrix can not be read, an empty one is returned and the Q-matrix
+     * is not written until the program is restarted, so the file is not overwritten.
+     */
+    public static QTable readQMatrix() {
+        QTable Q;
+        try {
+            Q = QJournal.load(new File(Q_FILE_PATH), false);
         } catch (IOException ex) {
-            // If we somehow failed to read the file, just clear the Q-matrix and start from scratch.
-            Q.clear();
+            System.err.println("Failed to read Q-Matrix from " + Q_FILE_PATH + ": " + ex.getMessage());
+            System.err.println("Starting from an empty Q-Matrix, which will not be saved.");
+            unreadable = true;
+            Q = new OpenAddressingQTable();
         }
-        
-        return Q;
+        return quantize(Q);
     }
     
-    public static void writeQMatrix(HashMap<State, double[]> Q) {
-        try (ObjectOutputStream fos = new ObjectOutputStream(new FileOutputStream(new File(Q_FILE_PATH), false))) {
-            for (Entry<State, double[]> entry : Q.entrySet()) {
-                entry.getKey().write(fos);
-                for (int i = 0; i < ACTION_COUNT; ++i) {
-                    fos.writeDouble(entry.getValue()[i]);
-                }
-            }
+    /**
+     * Maps the Q-matrix for reading, see MappedQTable. Unlike readQMatrix, a Q-matrix
+     * that can not be read is an error.
+     */
+    public static QTable mapQMatrix() throws IOException {
+        return QJournal.load(new File(Q_FILE_PATH));
+    }
+    
+    public static void writeQMatrix(QTable Q) {
+        if (isUnreadable())
+            return;
+        try {
+            QJournal.checkpoint(quantize(Q), new File(Q_FILE_PATH));
         } catch (IOException ex) {
             System.err.println("Failed to write Q-Matrix to " + Q_FILE_PATH);
         }
     }
     
-    private String getQValuesString(double[] q_values, int selected_action) {
+    /**
+     * Writes rows that are not a Q-table, such as BoundedQTable.getAllRows(), in the precision set in the config file.
+     */
+    public static void writeQMatrix(QRows rows) {
+        if (isUnreadable())
+            return;
+        try {
+            QJournal.checkpoint(rows, new File(Q_FILE_PATH), VALUE_TYPE, FRACTION_BITS);
+        } catch (IOException ex) {
+            System.err.println("Failed to write Q-Matrix to " + Q_FILE_PATH);
+        }
+    }
+    
+    /**
+     * Starts logging changes to a Q-matrix read with readQMatrix, or returns null if the log could not be opened.
+     */
+    public static QJournal openQJournal(QTable Q, long flushInterval) {
+        if (isUnreadable())
+            return null;
+        try {
+            return new QJournal(Q, new File(Q_FILE_PATH), flushInterval);
+        } catch (IOException ex) {
+            System.err.println("Failed to open Q-Matrix log for " + Q_FILE_PATH);
+            return null;
+        }
+    }
+    
+    private static boolean isUnreadable() {
+        if (unreadable)
+            System.err.println("Not saving the Q-Matrix, " + Q_FILE_PATH + " could not be read.");
+        return unreadable;
+    }
+    
+    private static QTable quantize(QTable Q) {
+        if (VALUE_TYPE == QTableFile.VALUE_DOUBLE || Q instanceof QuantizedQTable)
+            return Q;
+        return new QuantizedQTable(Q, VALUE_TYPE, FRACTION_BITS);
+    }
+    
+    private String getQValuesString(int row, int selected_action) {
         StringBuilder sb = new StringBuilder();
         
-        for (int a = 0; a < q_values.length; ++a) {
+        for (int a = 0; a < ACTION_COUNT; ++a) {
             if (a == selected_action) {
-                sb.append("[").append(getActionString(a)).append(":").append(q_values[a]).append("]");
+                sb.append("[").append(World.getActionString(a)).append(":").append(Q.get(row, a)).append("]");
             } else {
-                sb.append(getActionString(a)).append(":").append(q_values[a]);
+                sb.append(World.getActionString(a)).append(":").append(Q.get(row, a));
             }
             
-            if (a != q_values.length - 1)
+            if (a != ACTION_COUNT - 1)
                 sb.append(", ");
         }
         
@@ -0,0 +1,21 @@
+package qlearning;
+
+/**
+ * Read-only rows of Q-values, such as a Q-table or the rows of a table that
+ * are partly on disk (see BoundedQTable.getAllRows()). Rows are numbered
+ * from 0 to size() - 1, and each holds a packed state and ACTION_COUNT
+ * values. This is all that saving a table or compiling a policy needs.
+ */
+public interface QRows {
+    /**
+     * Returns the packed state stored in a row.
+     */
+    public long getState(int row);
+
+    public double get(int row, int action);
+
+    /**
+     * Returns the number of rows (states).
+     */
+    public int size();
+}
@@ -0,0 +1,40 @@
+package qlearning;
+
+/**
+ * A table of Q-values keyed by packed states (see QLearningAgent.State.pack()).
+ * Each state owns a row of ACTION_COUNT values. Rows are numbered from 0 and
+ * a row keeps its number for the lifetime of the table, so callers can hold on
+ * to a row number while other states are inserted.
+ */
+public interface QTable extends QRows {
+    public static final int ACTION_COUNT = 4;
+
+    /**
+     * Returns the row for a state, inserting a row of zeros if the state is new.
+     */
+    public int getRow(long state);
+
+    /**
+     * Returns the row for a state, or -1 if the state is not in the table.
+     */
+    public int findRow(long state);
+
+    public void set(int row, int action, double value);
+
+    /**
+     * Moves a Q-value towards a target: q = q + alpha * (target - q).
+     */
+    public void update(int row, int action, double target, double alpha);
+
+    /**
+     * Returns the largest Q-value in a row.
+     */
+    public double max(int row);
+
+    /**
+     * Marks the rows that are inserted or set from now on in a set of dirty
+     * rows (see QJournal), or stops marking them if dirty is null. Call it
+     * before the table is shared with other threads.
+     */
+    public void setDirtyRows(DirtyRows dirty);
+}
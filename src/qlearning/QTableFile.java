@@ -0,0 +1,246 @@
+package qlearning;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Reads and writes Q-tables.
+ *
+ * The binary format is laid out so that it can be memory-mapped and used
+ * in place (see MappedQTable):
+ *
+ *   header   MAGIC, VERSION, action count, record size, record count,
+ *            index capacity (ints), the index offset (long), the value
+ *            type and the fraction bits of short values (ints)
+ *   records  record count fixed-width records: the packed state (long)
+ *            followed by one value per action
+ *   index    index capacity ints, a linear probing hash index where each
+ *            slot holds record number + 1, or 0 if the slot is empty
+ *
+ * Values are doubles, floats or 16-bit fixed-point numbers (see the VALUE
+ * constants and QuantizedQTable). Version 1 files have no value type or
+ * fraction bits in their 32-byte header and always hold doubles.
+ *
+ * All values are big-endian. Files written by the old ObjectOutputStream
+ * code are still read, and are replaced by the binary format on the next
+ * write.
+ */
+public class QTableFile {
+    public static final int MAGIC = 0x57515442; // "WQTB"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 40;
+    public static final int V1_HEADER_SIZE = 32;
+    // Size of a record with double values.
+    public static final int RECORD_SIZE = 8 + 8 * QTable.ACTION_COUNT;
+
+    public static final int VALUE_DOUBLE = 0;
+    public static final int VALUE_FLOAT = 1;
+    public static final int VALUE_SHORT = 2;
+
+    // First bytes of a Java serialization stream.
+    private static final int LEGACY_MAGIC = 0xACED0005;
+
+    /**
+     * Reads a Q-table. Binary files are mapped, legacy files are read into
+     * an OpenAddressingQTable. A missing file gives an empty table.
+     */
+    public static QTable read(File file) throws IOException {
+        return read(file, true);
+    }
+
+    /**
+     * Reads a Q-table, mapping binary files or reading them into memory.
+     * Tables that are written back to their file should be read into
+     * memory, since a mapped file can not be replaced on Windows.
+     *
+     * @param mapped Whether to map binary files (see MappedQTable), or read
+     *               them into an OpenAddressingQTable or a QuantizedQTable
+     *               of the file's value type
+     */
+    public static QTable read(File file, boolean mapped) throws IOException {
+        int magic;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            magic = in.readInt();
+        } catch (FileNotFoundException ex) {
+            return new OpenAddressingQTable();
+        } catch (EOFException ex) {
+            return new OpenAddressingQTable();
+        }
+
+        if (magic == MAGIC)
+            return mapped ? new MappedQTable(file) : readBinary(file);
+        if (magic == LEGACY_MAGIC)
+            return readLegacy(file);
+        throw new IOException("Unknown Q-table format in " + file);
+    }
+
+    /**
+     * Writes a Q-table in the binary format, with the precision the table
+     * keeps its values in.
+     */
+    public static void write(QRows Q, File file) throws IOException {
+        if (Q instanceof QuantizedQTable) {
+            QuantizedQTable q = (QuantizedQTable) Q;
+            write(Q, file, q.getValueType(), q.getFractionBits());
+        } else if (Q instanceof MappedQTable) {
+            MappedQTable q = (MappedQTable) Q;
+            write(Q, file, q.getValueType(), q.getFractionBits());
+        } else {
+            write(Q, file, VALUE_DOUBLE, 0);
+        }
+    }
+
+    /**
+     * Writes a Q-table in the binary format with values of a type. The
+     * table is written to a temporary file that then replaces the target,
+     * so a table that is mapped from the target stays valid (where the
+     * target can be replaced while it is mapped, see read(File, boolean)).
+     *
+     * @param fractionBits Fraction bits of short values
+     */
+    public static void write(QRows Q, File file, int valueType, int fractionBits) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            write(Q, out, valueType, fractionBits);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(QRows Q, DataOutputStream out, int valueType, int fractionBits) throws IOException {
+        int count = Q.size();
+        int capacity = indexCapacity(count);
+        int[] index = new int[capacity];
+        int mask = capacity - 1;
+        int recordSize = recordSize(valueType);
+        double step = 1.0 / (1 << fractionBits);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(QTable.ACTION_COUNT);
+        out.writeInt(recordSize);
+        out.writeInt(count);
+        out.writeInt(capacity);
+        out.writeLong(HEADER_SIZE + (long) count * recordSize);
+        out.writeInt(valueType);
+        out.writeInt(fractionBits);
+
+        for (int row = 0; row < count; ++row) {
+            long state = Q.getState(row);
+            out.writeLong(state);
+            for (int a = 0; a < QTable.ACTION_COUNT; ++a) {
+                double q = Q.get(row, a);
+                if (valueType == VALUE_FLOAT)
+                    out.writeFloat((float) q);
+                else if (valueType == VALUE_SHORT)
+                    out.writeShort(QuantizedQTable.toShort(q, step));
+                else
+                    out.writeDouble(q);
+            }
+
+            int slot = (int) OpenAddressingQTable.mix(state) & mask;
+            while (index[slot] != 0)
+                slot = (slot + 1) & mask;
+            index[slot] = row + 1;
+        }
+
+        for (int i = 0; i < capacity; ++i)
+            out.writeInt(index[i]);
+    }
+
+    /**
+     * Returns the size of a record with values of a type.
+     */
+    public static int recordSize(int valueType) {
+        if (valueType == VALUE_FLOAT)
+            return 8 + 4 * QTable.ACTION_COUNT;
+        if (valueType == VALUE_SHORT)
+            return 8 + 2 * QTable.ACTION_COUNT;
+        return RECORD_SIZE;
+    }
+
+    /**
+     * Returns the index size for a number of records, a power of two that
+     * keeps the index at most half full.
+     */
+    static int indexCapacity(int count) {
+        int capacity = 16;
+        while (capacity < count * 2L)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static QTable readBinary(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            in.readInt();
+            int version = in.readInt();
+            if (version != 1 && version != VERSION)
+                throw new IOException("Unsupported Q-table version " + version + " in " + file);
+            int actionCount = in.readInt();
+            int recordSize = in.readInt();
+            int count = in.readInt();
+            in.readInt();
+            in.readLong();
+            int valueType = VALUE_DOUBLE;
+            int fractionBits = 0;
+            if (version == VERSION) {
+                valueType = in.readInt();
+                fractionBits = in.readInt();
+            }
+            if (actionCount != QTable.ACTION_COUNT || recordSize != recordSize(valueType))
+                throw new IOException("Q-table record layout does not match in " + file);
+
+            QTable Q;
+            if (valueType == VALUE_DOUBLE)
+                Q = new OpenAddressingQTable(count);
+            else
+                Q = new QuantizedQTable(valueType, fractionBits, count);
+            double step = 1.0 / (1 << fractionBits);
+
+            for (int i = 0; i < count; ++i) {
+                int row = Q.getRow(in.readLong());
+                for (int a = 0; a < QTable.ACTION_COUNT; ++a) {
+                    if (valueType == VALUE_FLOAT)
+                        Q.set(row, a, in.readFloat());
+                    else if (valueType == VALUE_SHORT)
+                        Q.set(row, a, in.readShort() * step);
+                    else
+                        Q.set(row, a, in.readDouble());
+                }
+            }
+            return Q;
+        }
+    }
+
+    private static QTable readLegacy(File file) throws IOException {
+        OpenAddressingQTable Q = new OpenAddressingQTable();
+
+        try (ObjectInputStream fis = new ObjectInputStream(new FileInputStream(file))) {
+            while (fis.available() > 0) {
+                QLearningAgent.State s = new QLearningAgent.State(fis);
+
+                int row = Q.getRow(s.pack());
+                for (int i = 0; i < QTable.ACTION_COUNT; ++i) {
+                    Q.set(row, i, fis.readDouble());
+                }
+            }
+        }
+
+        return Q;
+    }
+}
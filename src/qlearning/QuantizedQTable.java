@@ -0,0 +1,193 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Q-table that stores Q-values with less precision, to fit more states in
+ * memory. Values are kept in one flat array, either as floats or as 16-bit
+ * fixed-point numbers with a configurable number of fraction bits (see the
+ * VALUE constants of QTableFile). Fixed-point values are rounded to the
+ * nearest step and saturate at the ends of their range, which is +-4 with
+ * the default 13 fraction bits; Q-values stay within +-2 with the rewards
+ * the agent uses.
+ *
+ * The state index is a linear probing table of row numbers that looks up
+ * the state in the row itself, so a state with short values takes 16 bytes
+ * plus 8 bytes of index, against 40 plus 24 in an OpenAddressingQTable.
+ * A QJournal on the table adds one bit per state.
+ *
+ * Not thread-safe.
+ */
+public class QuantizedQTable implements QTable {
+    public static final int DEFAULT_FRACTION_BITS = 13;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int valueType;
+    private final int fractionBits;
+    private final double step;
+
+    // Slots hold row + 1, or 0 if empty.
+    private int[] slots;
+    private int mask;
+
+    private long[] states;
+    private float[] floats;
+    private short[] shorts;
+    private int size;
+    private DirtyRows dirty;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param valueType QTableFile.VALUE_FLOAT or QTableFile.VALUE_SHORT
+     * @param fractionBits Fraction bits of short values
+     * @param expectedSize Number of states to make room for
+     */
+    public QuantizedQTable(int valueType, int fractionBits, int expectedSize) {
+        if (valueType != QTableFile.VALUE_FLOAT && valueType != QTableFile.VALUE_SHORT)
+            throw new IllegalArgumentException("Not a quantized value type: " + valueType);
+        if (fractionBits < 0 || fractionBits > 15)
+            throw new IllegalArgumentException("Fraction bits must be between 0 and 15: " + fractionBits);
+        this.valueType = valueType;
+        this.fractionBits = fractionBits;
+        step = 1.0 / (1 << fractionBits);
+
+        int rows = Math.max(16, expectedSize);
+        states = new long[rows];
+        if (valueType == QTableFile.VALUE_FLOAT)
+            floats = new float[rows * ACTION_COUNT];
+        else
+            shorts = new short[rows * ACTION_COUNT];
+        rehash(Integer.highestOneBit(Math.max(16, (int) (rows / LOAD_FACTOR)) - 1) << 1);
+    }
+
+    /**
+     * Creates a copy of another table with values of less precision. Rows
+     * keep their numbers.
+     */
+    public QuantizedQTable(QTable source, int valueType, int fractionBits) {
+        this(valueType, fractionBits, source.size());
+        for (int row = 0; row < source.size(); ++row) {
+            getRow(source.getState(row));
+            for (int a = 0; a < ACTION_COUNT; ++a)
+                set(row, a, source.get(row, a));
+        }
+    }
+
+    public int getValueType() {
+        return valueType;
+    }
+
+    public int getFractionBits() {
+        return fractionBits;
+    }
+
+    @Override
+    public int getRow(long state) {
+        int slot = (int) OpenAddressingQTable.mix(state) & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (states[row] == state)
+                return row;
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == states.length) {
+            states = Arrays.copyOf(states, size * 2);
+            if (floats != null)
+                floats = Arrays.copyOf(floats, size * 2 * ACTION_COUNT);
+            else
+                shorts = Arrays.copyOf(shorts, size * 2 * ACTION_COUNT);
+        }
+
+        int row = size++;
+        states[row] = state;
+        slots[slot] = row + 1;
+        if (dirty != null)
+            dirty.mark(row);
+
+        if (size > slots.length * LOAD_FACTOR)
+            rehash(slots.length * 2);
+
+        return row;
+    }
+
+    @Override
+    public int findRow(long state) {
+        int slot = (int) OpenAddressingQTable.mix(state) & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (states[row] == state)
+                return row;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public long getState(int row) {
+        return states[row];
+    }
+
+    @Override
+    public double get(int row, int action) {
+        int i = row * ACTION_COUNT + action;
+        return floats != null ? floats[i] : shorts[i] * step;
+    }
+
+    @Override
+    public void set(int row, int action, double value) {
+        int i = row * ACTION_COUNT + action;
+        if (floats != null)
+            floats[i] = (float) value;
+        else
+            shorts[i] = toShort(value, step);
+        if (dirty != null)
+            dirty.mark(row);
+    }
+
+    @Override
+    public void update(int row, int action, double target, double alpha) {
+        double q = get(row, action);
+        set(row, action, q + alpha * (target - q));
+    }
+
+    @Override
+    public double max(int row) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int a = 0; a < ACTION_COUNT; ++a)
+            max = Math.max(max, get(row, a));
+        return max;
+    }
+
+    @Override
+    public void setDirtyRows(DirtyRows dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rounds a value to the nearest fixed-point step, saturating at the ends
+     * of the short range.
+     */
+    static short toShort(double value, double step) {
+        long raw = Math.round(value / step);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, raw));
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int row = 0; row < size; ++row) {
+            int slot = (int) OpenAddressingQTable.mix(states[row]) & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = row + 1;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package qlearning;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Disk-backed map from packed states to Q-values, where a BoundedQTable
+ * keeps the rows it evicts. The file is a linear probing hash table of
+ * fixed-width records (the same layout as QTableFile records) that is read
+ * and written in place, so it takes no heap however many rows it holds. It
+ * is rebuilt at twice the size when it gets half full.
+ *
+ * Not thread-safe. The file is deleted when closed.
+ */
+class SpillFile {
+    private static final long EMPTY = -1L;
+    private static final int RECORD_SIZE = QTableFile.RECORD_SIZE;
+    private static final int INITIAL_SLOTS = 1 << 12;
+    private static final int MAX_SLOTS = 1 << 28;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private int mask;
+    private int count;
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_SIZE);
+    private final ByteBuffer key = ByteBuffer.allocateDirect(8);
+
+    SpillFile(File file) throws IOException {
+        this.file = file;
+        open(file, INITIAL_SLOTS);
+    }
+
+    /**
+     * Reads the values of a state. Returns false if the state is not here.
+     */
+    boolean get(long state, double[] values) throws IOException {
+        int slot = find(state);
+        if (readState(slot) == EMPTY)
+            return false;
+        readRecord(slot);
+        for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+            values[a] = record.getDouble(8 + 8 * a);
+        return true;
+    }
+
+    /**
+     * Stores the values of a state, replacing any values stored before. A
+     * new state whose values are all zero is not stored, since zero is what
+     * a missing state starts with anyway.
+     */
+    void put(long state, double[] values) throws IOException {
+        int slot = find(state);
+        if (readState(slot) == EMPTY) {
+            boolean zero = true;
+            for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                zero &= values[a] == 0;
+            if (zero)
+                return;
+
+            if ((count + 1) * 2 > mask + 1) {
+                grow();
+                slot = find(state);
+            }
+            count++;
+        }
+        writeRecord(slot, state, values);
+    }
+
+    /**
+     * Returns the number of states stored.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of slots, for iterating with getState.
+     */
+    int slots() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the state in a slot, or -1 if the slot is empty.
+     */
+    long getState(int slot) throws IOException {
+        return readState(slot);
+    }
+
+    /**
+     * Reads the values in a slot.
+     */
+    void getValues(int slot, double[] values) throws IOException {
+        readRecord(slot);
+        for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+            values[a] = record.getDouble(8 + 8 * a);
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     */
+    long length() {
+        return (long) (mask + 1) * RECORD_SIZE;
+    }
+
+    void close() throws IOException {
+        raf.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private int find(long state) throws IOException {
+        int slot = (int) OpenAddressingQTable.mix(state) & mask;
+        while (true) {
+            long s = readState(slot);
+            if (s == state || s == EMPTY)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void open(File target, int slots) throws IOException {
+        raf = new RandomAccessFile(target, "rw");
+        raf.setLength(0);
+        raf.setLength((long) slots * RECORD_SIZE);
+        channel = raf.getChannel();
+        mask = slots - 1;
+        count = 0;
+
+        // Mark every slot empty, a block of records at a time.
+        ByteBuffer block = ByteBuffer.allocateDirect(RECORD_SIZE * 1024);
+        while (block.hasRemaining()) {
+            block.putLong(EMPTY);
+            for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                block.putDouble(0);
+        }
+        for (int slot = 0; slot < slots; slot += 1024) {
+            block.clear();
+            block.limit(Math.min(1024, slots - slot) * RECORD_SIZE);
+            write(block, (long) slot * RECORD_SIZE);
+        }
+    }
+
+    private void grow() throws IOException {
+        if (mask + 1 >= MAX_SLOTS)
+            throw new IOException("Spill file is full: " + file);
+
+        RandomAccessFile oldRaf = raf;
+        FileChannel oldChannel = channel;
+        int oldSlots = mask + 1;
+
+        File grown = new File(file.getPath() + ".grow");
+        open(grown, oldSlots * 2);
+        double[] values = new double[QTable.ACTION_COUNT];
+        ByteBuffer old = ByteBuffer.allocateDirect(RECORD_SIZE);
+        for (int slot = 0; slot < oldSlots; ++slot) {
+            old.clear();
+            read(oldChannel, old, (long) slot * RECORD_SIZE);
+            long state = old.getLong(0);
+            if (state == EMPTY)
+                continue;
+            for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+                values[a] = old.getDouble(8 + 8 * a);
+            writeRecord(find(state), state, values);
+            count++;
+        }
+
+        oldRaf.close();
+        raf.close();
+        Files.move(grown.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    private long readState(int slot) throws IOException {
+        key.clear();
+        read(channel, key, (long) slot * RECORD_SIZE);
+        return key.getLong(0);
+    }
+
+    private void readRecord(int slot) throws IOException {
+        record.clear();
+        read(channel, record, (long) slot * RECORD_SIZE);
+    }
+
+    private void writeRecord(int slot, long state, double[] values) throws IOException {
+        record.clear();
+        record.putLong(state);
+        for (int a = 0; a < QTable.ACTION_COUNT; ++a)
+            record.putDouble(values[a]);
+        record.flip();
+        write(record, (long) slot * RECORD_SIZE);
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
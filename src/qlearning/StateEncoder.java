@@ -0,0 +1,308 @@
+package qlearning;
+
+import wumpusworld.World;
+
+/**
+ * Encodes what the agent knows about its surroundings into a packed state
+ * (see QLearningAgent.State for the unpacked form).
+ *
+ * States can be reduced by symmetry. An egocentric state is turned so that
+ * the player faces east: its neighbours are listed from the player's point
+ * of view and the direction is dropped, so the four turns of a situation
+ * share one state. A mirror state is also reflected along the facing
+ * direction when that gives the smaller key; the state is then returned
+ * with the MIRRORED flag, and turning left means turning right in the world
+ * (see mirrorAction).
+ *
+ * For worlds up to MAX_TABLE_SIZE the neighbours and neighbours' neighbours
+ * of every square are looked up in tables built once per world size, with
+ * -1 marking squares outside the world. Larger worlds compute them from the
+ * coordinates instead, since the tables would grow with the square of the
+ * size.
+ */
+public class StateEncoder {
+    static final byte PERCEPT_BREEZY = 1;
+    static final byte PERCEPT_STENCH = 2;
+
+    static final byte TYPE_NORMAL = 0;
+    static final byte TYPE_UNKNOWN = 1;
+    static final byte TYPE_WALL = 2;
+
+    static final byte HAZARD_WUMPUS = 1;
+    static final byte HAZARD_PIT = 2;
+
+    // Bit layout of a packed state. Every field is two bits wide except the two flags.
+    static final int SHIFT_DIRECTION = 0;
+    static final int SHIFT_PERCEPTS = 2;
+    static final int SHIFT_HAZARDS = 4;
+    static final int SHIFT_NEIGHBOUR_TYPE = 6;
+    static final int SHIFT_NEIGHBOUR_HAZARDS = 14;
+    static final int SHIFT_N2N_TYPE = 22;
+    static final int SHIFT_N2N_PERCEPTS = 38;
+    static final int SHIFT_WUMPUS_ALIVE = 54;
+    static final int SHIFT_HAS_ARROW = 55;
+
+    static final int[][] NEIGHBOUR_COORDINATES = { {1, 0}, {0, 1}, {-1, 0}, {0, -1} };
+    static final int[][] N2N_COORDINATES = { {2, 0}, {1, 1}, {0, 2}, {-1, 1}, {-2, 0}, {-1, -1}, {0, -2}, {1, -1} };
+
+    public static final int MAX_TABLE_SIZE = 64;
+
+    public static final int SYMMETRY_NONE = 0;
+    public static final int SYMMETRY_EGOCENTRIC = 1;
+    public static final int SYMMETRY_MIRROR = 2;
+
+    // Set on a mirrored state. Not part of the state, mask it off with STATE_MASK.
+    public static final long MIRRORED = 1L << 56;
+    public static final long STATE_MASK = MIRRORED - 1;
+
+    private static final StateEncoder[][] encoders = new StateEncoder[3][MAX_TABLE_SIZE + 1];
+
+    private final int size;
+    private final int symmetry;
+    private final int[] neighbours;
+    private final int[] n2n;
+
+    /**
+     * Returns the encoder for worlds of a size, without symmetry reduction.
+     */
+    public static StateEncoder forSize(int size) {
+        return forSize(size, SYMMETRY_NONE);
+    }
+
+    /**
+     * Returns the encoder for worlds of a size. Encoders are immutable and
+     * shared between agents and threads.
+     */
+    public static StateEncoder forSize(int size, int symmetry) {
+        if (size > MAX_TABLE_SIZE)
+            return new StateEncoder(size, symmetry, false);
+
+        synchronized (encoders) {
+            if (encoders[symmetry][size] == null)
+                encoders[symmetry][size] = new StateEncoder(size, symmetry, true);
+            return encoders[symmetry][size];
+        }
+    }
+
+    private StateEncoder(int size, int symmetry, boolean tables) {
+        this.size = size;
+        this.symmetry = symmetry;
+        if (tables) {
+            neighbours = buildTable(size, NEIGHBOUR_COORDINATES);
+            n2n = buildTable(size, N2N_COORDINATES);
+        } else {
+            neighbours = null;
+            n2n = null;
+        }
+    }
+
+    private static int[] buildTable(int size, int[][] offsets) {
+        int[] table = new int[size * size * offsets.length];
+        for (int c = 0; c < size * size; ++c) {
+            for (int i = 0; i < offsets.length; ++i)
+                table[c * offsets.length + i] = offset(size, c, offsets[i]);
+        }
+        return table;
+    }
+
+    private static int offset(int size, int c, int[] offset) {
+        int x = c % size + offset[0];
+        int y = c / size + offset[1];
+        if (x < 0 || y < 0 || x >= size || y >= size)
+            return -1;
+        return x + y * size;
+    }
+
+    /**
+     * Encodes the state of the player at its current square.
+     */
+    public long encode(World w) {
+        return encode(w, w.getPlayerX(), w.getPlayerY());
+    }
+
+    /**
+     * Encodes the state of the player as if it stood at a square, reduced by
+     * the encoder's symmetry.
+     */
+    public long encode(World w, int x, int y) {
+        return canonicalize(encodeAbsolute(w, x, y), symmetry);
+    }
+
+    private long encodeAbsolute(World w, int x, int y) {
+        int c = w.getCellIndex(x, y);
+        long s = (long) w.getDirection() << SHIFT_DIRECTION;
+        if (w.hasArrow())
+            s |= 1L << SHIFT_HAS_ARROW;
+        if (w.wumpusAlive())
+            s |= 1L << SHIFT_WUMPUS_ALIVE;
+
+        int flags = w.getCellFlags(c);
+        if ((flags & World.CELL_VISITED) != 0) {
+            if ((flags & World.CELL_BREEZE) != 0)
+                s |= (long) PERCEPT_BREEZY << SHIFT_PERCEPTS;
+            if ((flags & World.CELL_STENCH) != 0)
+                s |= (long) PERCEPT_STENCH << SHIFT_PERCEPTS;
+            if ((flags & World.CELL_PIT) != 0)
+                s |= (long) HAZARD_PIT << SHIFT_HAZARDS;
+            if ((flags & World.CELL_WUMPUS) != 0)
+                s |= (long) HAZARD_WUMPUS << SHIFT_HAZARDS;
+        }
+
+        // Check type and hazards of neighbours.
+        for (int i = 0; i < 4; ++i) {
+            int n = neighbours != null ? neighbours[c * 4 + i] : offset(size, c, NEIGHBOUR_COORDINATES[i]);
+            if (n < 0) {
+                s |= (long) TYPE_WALL << (SHIFT_NEIGHBOUR_TYPE + 2 * i);
+                continue;
+            }
+
+            int nf = w.getCellFlags(n);
+            if ((nf & World.CELL_VISITED) == 0) {
+                s |= (long) TYPE_UNKNOWN << (SHIFT_NEIGHBOUR_TYPE + 2 * i);
+                continue;
+            }
+            if ((nf & World.CELL_PIT) != 0)
+                s |= (long) HAZARD_PIT << (SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+            if ((nf & World.CELL_WUMPUS) != 0)
+                s |= (long) HAZARD_WUMPUS << (SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+        }
+
+        // Check percepts in our neighbours' neighbours.
+        for (int i = 0; i < 8; ++i) {
+            int n = n2n != null ? n2n[c * 8 + i] : offset(size, c, N2N_COORDINATES[i]);
+            if (n < 0) {
+                s |= (long) TYPE_WALL << (SHIFT_N2N_TYPE + 2 * i);
+                continue;
+            }
+
+            int nf = w.getCellFlags(n);
+            if ((nf & World.CELL_VISITED) == 0) {
+                s |= (long) TYPE_UNKNOWN << (SHIFT_N2N_TYPE + 2 * i);
+                continue;
+            }
+            if ((nf & World.CELL_BREEZE) != 0)
+                s |= (long) PERCEPT_BREEZY << (SHIFT_N2N_PERCEPTS + 2 * i);
+            if ((nf & World.CELL_STENCH) != 0)
+                s |= (long) PERCEPT_STENCH << (SHIFT_N2N_PERCEPTS + 2 * i);
+        }
+
+        return s;
+    }
+
+    /**
+     * Encodes the state of a player at square c of a world with at most 64
+     * squares, given as one bit per square for each feature (see VectorEnv),
+     * reduced by the encoder's symmetry. Gives the same state as encode()
+     * for the same world.
+     */
+    long encode(int c, int direction, boolean hasArrow, boolean wumpusAlive,
+            long visited, long pits, long breezes, long stenches, long wumpuses) {
+        long s = (long) direction << SHIFT_DIRECTION;
+        if (hasArrow)
+            s |= 1L << SHIFT_HAS_ARROW;
+        if (wumpusAlive)
+            s |= 1L << SHIFT_WUMPUS_ALIVE;
+
+        long bit = 1L << c;
+        if ((visited & bit) != 0) {
+            if ((breezes & bit) != 0)
+                s |= (long) PERCEPT_BREEZY << SHIFT_PERCEPTS;
+            if ((stenches & bit) != 0)
+                s |= (long) PERCEPT_STENCH << SHIFT_PERCEPTS;
+            if ((pits & bit) != 0)
+                s |= (long) HAZARD_PIT << SHIFT_HAZARDS;
+            if ((wumpuses & bit) != 0)
+                s |= (long) HAZARD_WUMPUS << SHIFT_HAZARDS;
+        }
+
+        for (int i = 0; i < 4; ++i) {
+            int n = neighbours[c * 4 + i];
+            if (n < 0) {
+                s |= (long) TYPE_WALL << (SHIFT_NEIGHBOUR_TYPE + 2 * i);
+                continue;
+            }
+
+            long nb = 1L << n;
+            if ((visited & nb) == 0) {
+                s |= (long) TYPE_UNKNOWN << (SHIFT_NEIGHBOUR_TYPE + 2 * i);
+                continue;
+            }
+            if ((pits & nb) != 0)
+                s |= (long) HAZARD_PIT << (SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+            if ((wumpuses & nb) != 0)
+                s |= (long) HAZARD_WUMPUS << (SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+        }
+
+        for (int i = 0; i < 8; ++i) {
+            int n = n2n[c * 8 + i];
+            if (n < 0) {
+                s |= (long) TYPE_WALL << (SHIFT_N2N_TYPE + 2 * i);
+                continue;
+            }
+
+            long nb = 1L << n;
+            if ((visited & nb) == 0) {
+                s |= (long) TYPE_UNKNOWN << (SHIFT_N2N_TYPE + 2 * i);
+                continue;
+            }
+            if ((breezes & nb) != 0)
+                s |= (long) PERCEPT_BREEZY << (SHIFT_N2N_PERCEPTS + 2 * i);
+            if ((stenches & nb) != 0)
+                s |= (long) PERCEPT_STENCH << (SHIFT_N2N_PERCEPTS + 2 * i);
+        }
+
+        return canonicalize(s, symmetry);
+    }
+
+    /**
+     * Reduces a state encoded without symmetry to its canonical form. Mirror
+     * states may come back with the MIRRORED flag set.
+     */
+    public static long canonicalize(long state, int symmetry) {
+        if (symmetry == SYMMETRY_NONE)
+            return state;
+
+        // Neighbours are listed counter-clockwise from east, so the facing
+        // direction is a number of quarter turns from east.
+        int facing = (5 - (int) (state >>> SHIFT_DIRECTION & 3)) & 3;
+        long turned = rotate(state, facing, 1);
+        if (symmetry == SYMMETRY_EGOCENTRIC)
+            return turned;
+
+        long mirrored = rotate(state, facing, -1);
+        return mirrored < turned ? mirrored | MIRRORED : turned;
+    }
+
+    /**
+     * Returns the action in the world for an action chosen in a mirrored
+     * state, or the other way around.
+     */
+    public static int mirrorAction(int action) {
+        if (action == World.ACTION_TURN_LEFT)
+            return World.ACTION_TURN_RIGHT;
+        if (action == World.ACTION_TURN_RIGHT)
+            return World.ACTION_TURN_LEFT;
+        return action;
+    }
+
+    /**
+     * Lists the neighbours of a state starting from the facing direction,
+     * counter-clockwise (step 1) or clockwise (step -1), and clears the
+     * direction.
+     */
+    private static long rotate(long state, int facing, int step) {
+        // The player's own square and the flags do not turn.
+        long s = state & (3L << SHIFT_PERCEPTS | 3L << SHIFT_HAZARDS | 1L << SHIFT_WUMPUS_ALIVE | 1L << SHIFT_HAS_ARROW);
+        for (int i = 0; i < 4; ++i) {
+            int from = (facing + step * i) & 3;
+            s |= (state >>> (SHIFT_NEIGHBOUR_TYPE + 2 * from) & 3) << (SHIFT_NEIGHBOUR_TYPE + 2 * i);
+            s |= (state >>> (SHIFT_NEIGHBOUR_HAZARDS + 2 * from) & 3) << (SHIFT_NEIGHBOUR_HAZARDS + 2 * i);
+        }
+        for (int i = 0; i < 8; ++i) {
+            int from = (2 * facing + step * i) & 7;
+            s |= (state >>> (SHIFT_N2N_TYPE + 2 * from) & 3) << (SHIFT_N2N_TYPE + 2 * i);
+            s |= (state >>> (SHIFT_N2N_PERCEPTS + 2 * from) & 3) << (SHIFT_N2N_PERCEPTS + 2 * i);
+        }
+        return s;
+    }
+}
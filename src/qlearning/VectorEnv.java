@@ -0,0 +1,386 @@
+package qlearning;
+
+import wumpusworld.EpisodeOutcome;
+import wumpusworld.EpisodeSource;
+import wumpusworld.World;
+
+/**
+ * Steps a number of Wumpus Worlds in lockstep, for learners that choose the
+ * actions of many episodes at once. The worlds are kept as parallel arrays
+ * rather than World objects: one int per world for the square, direction,
+ * flags, score and step count, and one long per world for each feature with
+ * one bit per square, so worlds are limited to MAX_SIZE.
+ *
+ * A step plays one action in every world the way QLearningAgent does: the
+ * agent climbs out of a pit before it acts, and grabs the gold or climbs out
+ * of a pit after moving. Actions are given in the frame of the state the
+ * world was last reported in, so they are mirrored for mirrored states.
+ * Rewards are the agent's rewards, and an episode ends when the game is
+ * over or after more than actionLimit steps, as in the simulator.
+ *
+ * A world whose episode ended is reset to the next episode of the source
+ * in the same step. The state reached by the step is then in
+ * getNextStates(), and the state to choose the next action in is in
+ * getStates(). Result arrays are reused by every step.
+ *
+ * Not thread-safe.
+ */
+public class VectorEnv {
+    public static final int MAX_SIZE = 8;
+
+    private static final int FLAG_ARROW = 1;
+    private static final int FLAG_WUMPUS_ALIVE = 2;
+    private static final int FLAG_IN_PIT = 4;
+    private static final int FLAG_GOLD = 8;
+    private static final int FLAG_GAME_OVER = 16;
+
+    // Direction deltas indexed by World direction constants.
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final int count;
+    private final int size;
+    private final int actionLimit;
+    private final EpisodeSource source;
+    private final StateEncoder encoder;
+    private int nextEpisode;
+
+    // Square in front of every square for every direction, or -1 for a wall.
+    private final int[] ahead;
+    // Squares the arrow flies through from every square in every direction.
+    private final long[] lineOfFire;
+
+    private final int[] cell;
+    private final int[] direction;
+    private final int[] flags;
+    private final int[] score;
+    private final int[] steps;
+    private final int[] episode;
+    private final boolean[] mirrored;
+    private final long[] visited;
+    private final long[] pits;
+    private final long[] breezes;
+    private final long[] stenches;
+    private final long[] wumpuses;
+    private final long[] glitters;
+
+    private final long[] states;
+    private final long[] nextStates;
+    private final double[] rewards;
+    private final boolean[] done;
+    private final int[] finishedEpisodes;
+    private final int[] finalScores;
+    private final int[] finalSteps;
+    private final int[] outcomes;
+
+    /**
+     * Creates the worlds and starts them on episodes 0 to count - 1.
+     *
+     * @param count Number of worlds
+     * @param source Creates the world for each episode, all of the same size
+     * @param size Size of the worlds, at most MAX_SIZE
+     * @param symmetry Symmetry reduction of the states (see StateEncoder)
+     * @param actionLimit Max number of steps in an episode
+     */
+    public VectorEnv(int count, EpisodeSource source, int size, int symmetry, int actionLimit) {
+        if (size > MAX_SIZE)
+            throw new IllegalArgumentException("World size " + size + " is larger than " + MAX_SIZE);
+
+        this.count = count;
+        this.size = size;
+        this.actionLimit = actionLimit;
+        this.source = source;
+        encoder = StateEncoder.forSize(size, symmetry);
+
+        int cells = size * size;
+        ahead = new int[4 * cells];
+        lineOfFire = new long[4 * cells];
+        for (int d = 0; d < 4; ++d) {
+            for (int c = 0; c < cells; ++c) {
+                int x = c % size + DX[d];
+                int y = c / size + DY[d];
+                boolean inside = x >= 0 && y >= 0 && x < size && y < size;
+                ahead[d * cells + c] = inside ? x + y * size : -1;
+
+                long line = 0;
+                for (x = c % size, y = c / size; x >= 0 && y >= 0 && x < size && y < size; x += DX[d], y += DY[d])
+                    line |= 1L << (x + y * size);
+                lineOfFire[d * cells + c] = line;
+            }
+        }
+
+        cell = new int[count];
+        direction = new int[count];
+        flags = new int[count];
+        score = new int[count];
+        steps = new int[count];
+        episode = new int[count];
+        mirrored = new boolean[count];
+        visited = new long[count];
+        pits = new long[count];
+        breezes = new long[count];
+        stenches = new long[count];
+        wumpuses = new long[count];
+        glitters = new long[count];
+
+        states = new long[count];
+        nextStates = new long[count];
+        rewards = new double[count];
+        done = new boolean[count];
+        finishedEpisodes = new int[count];
+        finalScores = new int[count];
+        finalSteps = new int[count];
+        outcomes = new int[count];
+
+        for (int i = 0; i < count; ++i)
+            reset(i);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Plays one action in every world, and resets the worlds whose episode
+     * ended.
+     *
+     * @param actions One action per world, in the frame of its state
+     */
+    public void step(int[] actions) {
+        for (int i = 0; i < count; ++i) {
+            rewards[i] = step(i, actions[i]);
+            steps[i]++;
+            nextStates[i] = encode(i);
+
+            int f = flags[i];
+            done[i] = (f & FLAG_GAME_OVER) != 0 || steps[i] > actionLimit;
+            if (done[i]) {
+                finishedEpisodes[i] = episode[i];
+                finalScores[i] = score[i];
+                finalSteps[i] = steps[i];
+                if ((f & FLAG_GAME_OVER) == 0)
+                    outcomes[i] = EpisodeOutcome.TIMEOUT;
+                else
+                    outcomes[i] = (f & FLAG_GOLD) != 0 ? EpisodeOutcome.GOLD : EpisodeOutcome.DEATH;
+                reset(i);
+            } else {
+                states[i] = nextStates[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the state of every world to choose the next action in, with
+     * the MIRRORED flag masked off.
+     */
+    public long[] getStates() {
+        return states;
+    }
+
+    /**
+     * Returns the state every world reached in the last step, before worlds
+     * whose episode ended were reset.
+     */
+    public long[] getNextStates() {
+        return nextStates;
+    }
+
+    public double[] getRewards() {
+        return rewards;
+    }
+
+    /**
+     * Returns which worlds ended an episode in the last step.
+     */
+    public boolean[] getDone() {
+        return done;
+    }
+
+    /**
+     * Returns the episode index each world ended in the last step. Only set
+     * for worlds that are done.
+     */
+    public int[] getFinishedEpisodes() {
+        return finishedEpisodes;
+    }
+
+    /**
+     * Returns the score each world ended an episode with in the last step.
+     * Only set for worlds that are done.
+     */
+    public int[] getFinalScores() {
+        return finalScores;
+    }
+
+    /**
+     * Returns the number of steps of the episode each world ended in the
+     * last step. Only set for worlds that are done.
+     */
+    public int[] getFinalSteps() {
+        return finalSteps;
+    }
+
+    /**
+     * Returns how the episode each world ended in the last step ended (see
+     * EpisodeOutcome). Only set for worlds that are done.
+     */
+    public int[] getOutcomes() {
+        return outcomes;
+    }
+
+    /**
+     * Returns the number of episodes started so far.
+     */
+    public int getEpisodesStarted() {
+        return nextEpisode;
+    }
+
+    private double step(int i, int a) {
+        int c1 = cell[i];
+        long b1 = 1L << c1;
+        int f = flags[i];
+
+        // Gold on the start square is grabbed before any action is chosen.
+        if ((glitters[i] & b1) != 0) {
+            glitters[i] &= ~b1;
+            score[i] += 999;
+            flags[i] = f | FLAG_GOLD | FLAG_GAME_OVER;
+            return QLearningAgent.REWARD_GOLD;
+        }
+
+        // The agent climbs at the start of every step on a pit square.
+        if ((pits[i] & b1) != 0) {
+            score[i]--;
+            f &= ~FLAG_IN_PIT;
+        }
+
+        int action = mirrored[i] ? StateEncoder.mirrorAction(a) : a;
+        int d = direction[i];
+        int c2 = c1;
+        boolean explored = false;
+        score[i]--;
+        switch (action) {
+            case World.ACTION_MOVE:
+                int n = ahead[d * size * size + c1];
+                if (n >= 0 && (f & FLAG_IN_PIT) == 0) {
+                    long b = 1L << n;
+                    c2 = n;
+                    explored = (visited[i] & b) == 0;
+                    visited[i] |= b;
+                    if ((wumpuses[i] & b) != 0) {
+                        score[i] -= 1000;
+                        f |= FLAG_GAME_OVER;
+                    }
+                    if ((pits[i] & b) != 0) {
+                        score[i] -= 1000;
+                        f |= FLAG_IN_PIT;
+                    }
+                }
+                break;
+            case World.ACTION_SHOOT:
+                if ((f & FLAG_ARROW) != 0) {
+                    score[i] -= 10;
+                    f &= ~FLAG_ARROW;
+                    if ((wumpuses[i] & lineOfFire[d * size * size + c1]) != 0) {
+                        wumpuses[i] = 0;
+                        stenches[i] = 0;
+                        f &= ~FLAG_WUMPUS_ALIVE;
+                    }
+                }
+                break;
+            case World.ACTION_TURN_LEFT:
+                direction[i] = (d + 3) & 3;
+                break;
+            case World.ACTION_TURN_RIGHT:
+                direction[i] = (d + 1) & 3;
+                break;
+        }
+        cell[i] = c2;
+
+        long b2 = 1L << c2;
+        if ((f & FLAG_GAME_OVER) == 0) {
+            if ((glitters[i] & b2) != 0) {
+                glitters[i] &= ~b2;
+                score[i] += 999;
+                f |= FLAG_GOLD | FLAG_GAME_OVER;
+            } else if ((pits[i] & b2) != 0) {
+                score[i]--;
+                f &= ~FLAG_IN_PIT;
+            }
+        }
+        int before = flags[i];
+        flags[i] = f;
+
+        // The same rewards as QLearningAgent.getReward.
+        if (action == World.ACTION_TURN_LEFT || action == World.ACTION_TURN_RIGHT)
+            return QLearningAgent.REWARD_TURNING;
+        if (action == World.ACTION_MOVE && c2 == c1)
+            return QLearningAgent.REWARD_BUMPING_INTO_WALL;
+        if (action == World.ACTION_SHOOT && (before & FLAG_ARROW) == 0)
+            return QLearningAgent.REWARD_FIRING_WITHOUT_AMMO;
+        if ((wumpuses[i] & b2) != 0)
+            return QLearningAgent.REWARD_EATEN;
+        if ((f & FLAG_GOLD) != 0)
+            return QLearningAgent.REWARD_GOLD;
+        if ((pits[i] & b2) != 0 && (pits[i] & b1) == 0)
+            return QLearningAgent.REWARD_PIT;
+        if ((before & FLAG_ARROW) != 0 && (f & FLAG_ARROW) == 0)
+            return (f & FLAG_WUMPUS_ALIVE) != 0 ? QLearningAgent.REWARD_ARROW_MISSED : QLearningAgent.REWARD_WUMPUS_KILLED;
+        if (explored)
+            return QLearningAgent.REWARD_EXPLORED_TILE;
+        return 0.0;
+    }
+
+    private long encode(int i) {
+        int f = flags[i];
+        long s = encoder.encode(cell[i], direction[i], (f & FLAG_ARROW) != 0, (f & FLAG_WUMPUS_ALIVE) != 0,
+                visited[i], pits[i], breezes[i], stenches[i], wumpuses[i]);
+        mirrored[i] = (s & StateEncoder.MIRRORED) != 0;
+        return s & StateEncoder.STATE_MASK;
+    }
+
+    private void reset(int i) {
+        World w = source.createWorld(nextEpisode);
+        if (w.getSize() != size)
+            throw new IllegalArgumentException("Episode " + nextEpisode + " has size " + w.getSize() + ", not " + size);
+        episode[i] = nextEpisode++;
+
+        long v = 0, p = 0, b = 0, s = 0, wu = 0, g = 0;
+        for (int c = 0; c < size * size; ++c) {
+            int cf = w.getCellFlags(c);
+            long bit = 1L << c;
+            if ((cf & World.CELL_VISITED) != 0)
+                v |= bit;
+            if ((cf & World.CELL_PIT) != 0)
+                p |= bit;
+            if ((cf & World.CELL_BREEZE) != 0)
+                b |= bit;
+            if ((cf & World.CELL_STENCH) != 0)
+                s |= bit;
+            if ((cf & World.CELL_WUMPUS) != 0)
+                wu |= bit;
+            if ((cf & World.CELL_GLITTER) != 0)
+                g |= bit;
+        }
+        visited[i] = v;
+        pits[i] = p;
+        breezes[i] = b;
+        stenches[i] = s;
+        wumpuses[i] = wu;
+        glitters[i] = g;
+
+        cell[i] = w.getCellIndex(w.getPlayerX(), w.getPlayerY());
+        direction[i] = w.getDirection();
+        int f = 0;
+        if (w.hasArrow())
+            f |= FLAG_ARROW;
+        if (w.wumpusAlive())
+            f |= FLAG_WUMPUS_ALIVE;
+        if (w.isInPit())
+            f |= FLAG_IN_PIT;
+        flags[i] = f;
+        score[i] = w.getScore();
+        steps[i] = 0;
+        states[i] = encode(i);
+    }
+}
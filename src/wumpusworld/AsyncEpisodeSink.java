@@ -0,0 +1,189 @@
+package wumpusworld;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Episode sink that any number of simulation threads can
+ * report to. Results are put in a ring buffer and handed
+ * to the wrapped sinks in batches by a writer thread, so
+ * the simulation never waits for output unless the buffer
+ * is full.
+ * 
+ * A sink that fails is reported once and then skipped.
+ */
+public class AsyncEpisodeSink implements EpisodeSink
+{
+    private static final int CAPACITY = 1 << 16;
+    private static final int BATCH = 1024;
+    //How long the writer waits for a full batch.
+    private static final long MAX_WAIT = 100;
+    
+    private final List<EpisodeSink> sinks;
+    private final boolean[] failed;
+    private final Thread writer;
+    
+    //Ring buffer, guarded by the sink itself.
+    private final int[] episodes = new int[CAPACITY];
+    private final int[] scores = new int[CAPACITY];
+    private final int[] actionCounts = new int[CAPACITY];
+    private final int[] outcomes = new int[CAPACITY];
+    private long head;
+    private long tail;
+    private boolean closed;
+    
+    /**
+     * Creates a new sink and starts its writer thread.
+     * 
+     * @param sinks Sinks that receive the results
+     */
+    public AsyncEpisodeSink(List<EpisodeSink> sinks)
+    {
+        this.sinks = sinks;
+        failed = new boolean[sinks.size()];
+        writer = new Thread("Episode writer")
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Adds a result to the buffer. Waits if the buffer
+     * is full. Thread-safe.
+     */
+    @Override
+    public synchronized void episodeEnded(int episode, int score, int actions, int outcome)
+    {
+        boolean interrupted = false;
+        while (tail - head == CAPACITY)
+        {
+            notifyAll();
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException ex)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        
+        int i = (int)(tail & (CAPACITY - 1));
+        episodes[i] = episode;
+        scores[i] = score;
+        actionCounts[i] = actions;
+        outcomes[i] = outcome;
+        tail++;
+        
+        if (tail - head == BATCH) notifyAll();
+    }
+    
+    /**
+     * Waits for the buffered results to be written and
+     * closes the wrapped sinks.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+        
+        boolean interrupted = false;
+        while (writer.isAlive())
+        {
+            try
+            {
+                writer.join();
+            }
+            catch (InterruptedException ex)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        
+        for (int s = 0; s < sinks.size(); s++)
+        {
+            try
+            {
+                sinks.get(s).close();
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed to close episode log: " + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Writer thread loop. Copies batches out of the ring
+     * buffer and hands them to the sinks outside the lock.
+     */
+    private void drain()
+    {
+        int[] batchEpisodes = new int[BATCH];
+        int[] batchScores = new int[BATCH];
+        int[] batchActions = new int[BATCH];
+        int[] batchOutcomes = new int[BATCH];
+        
+        while (true)
+        {
+            int n;
+            synchronized (this)
+            {
+                if (tail - head < BATCH && !closed)
+                {
+                    try
+                    {
+                        wait(MAX_WAIT);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        //Keep writing until closed.
+                    }
+                }
+                if (head == tail && closed) return;
+                
+                n = (int)Math.min(BATCH, tail - head);
+                for (int b = 0; b < n; b++)
+                {
+                    int i = (int)((head + b) & (CAPACITY - 1));
+                    batchEpisodes[b] = episodes[i];
+                    batchScores[b] = scores[i];
+                    batchActions[b] = actionCounts[i];
+                    batchOutcomes[b] = outcomes[i];
+                }
+                head += n;
+                notifyAll();
+            }
+            
+            for (int s = 0; s < sinks.size(); s++)
+            {
+                if (failed[s]) continue;
+                try
+                {
+                    EpisodeSink sink = sinks.get(s);
+                    for (int b = 0; b < n; b++)
+                    {
+                        sink.episodeEnded(batchEpisodes[b], batchScores[b], batchActions[b], batchOutcomes[b]);
+                    }
+                }
+                catch (IOException ex)
+                {
+                    failed[s] = true;
+                    System.err.println("Failed to write episode log: " + ex.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package wumpusworld;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes episode results to a compact binary file. The
+ * file starts with MAGIC and VERSION (ints), followed by
+ * one RECORD_SIZE record per episode: the episode index,
+ * score and number of actions (ints) and the outcome
+ * (byte). All values are big-endian.
+ */
+public class BinaryEpisodeSink implements EpisodeSink
+{
+    public static final int MAGIC = 0x57514550; // "WQEP"
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 13;
+    
+    private DataOutputStream out;
+    
+    /**
+     * Creates a new binary file, replacing any existing file.
+     * 
+     * @param file File to write
+     * @throws IOException If the file could not be created
+     */
+    public BinaryEpisodeSink(File file) throws IOException
+    {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+    
+    @Override
+    public void episodeEnded(int episode, int score, int actions, int outcome) throws IOException
+    {
+        out.writeInt(episode);
+        out.writeInt(score);
+        out.writeInt(actions);
+        out.writeByte(outcome);
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
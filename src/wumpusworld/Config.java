@@ -10,7 +10,8 @@ import java.io.*;
 public class Config 
 {
     /**
-     * Checks the options for the application ('gui', 'sim' or 'simdb').
+     * Checks the options for the application ('gui', 'sim', 'simdb', 'eval', 'symreport',
+     * 'qcompare' or 'corpus').
      * 
      * @return Option. Default is 'gui'. 
      */
@@ -31,6 +32,11 @@ public class Config
                     if (tokens[1].equalsIgnoreCase("simulator")) option = "sim";
                     if (tokens[1].equalsIgnoreCase("simdb")) option = "simdb";
                     if (tokens[1].equalsIgnoreCase("simulatordb")) option = "simdb";
+                    if (tokens[1].equalsIgnoreCase("eval")) option = "eval";
+                    if (tokens[1].equalsIgnoreCase("evaluate")) option = "eval";
+                    if (tokens[1].equalsIgnoreCase("symreport")) option = "symreport";
+                    if (tokens[1].equalsIgnoreCase("qcompare")) option = "qcompare";
+                    if (tokens[1].equalsIgnoreCase("corpus")) option = "corpus";
                 }
                 line = r.readLine();
             }
@@ -72,4 +78,153 @@ public class Config
         }
         return mapfile;
     }
+    
+    /**
+     * Returns the value of a setting.
+     * 
+     * @param key Name of the setting
+     * @param defaultValue Value to use if the setting is not found
+     * @return Value of the setting, or the default value if not found.
+     */
+    public static String getValue(String key, String defaultValue)
+    {
+        String value = defaultValue;
+        try
+        {
+            BufferedReader r = new BufferedReader(new FileReader("config.txt"));
+            String line = r.readLine();
+            while (line != null)
+            {
+                if (line.startsWith(key + "="))
+                {
+                    value = line.substring(key.length() + 1).trim();
+                }
+                line = r.readLine();
+            }
+            r.close();
+        }
+        catch (Exception ex)
+        {
+            value = defaultValue;
+        }
+        return value;
+    }
+    
+    /**
+     * Returns the value of an integer setting.
+     * 
+     * @param key Name of the setting
+     * @param defaultValue Value to use if the setting is not found or invalid
+     * @return Value of the setting, or the default value.
+     */
+    public static int getInt(String key, int defaultValue)
+    {
+        try
+        {
+            return Integer.parseInt(getValue(key, "" + defaultValue));
+        }
+        catch (NumberFormatException ex)
+        {
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Returns the size of the random worlds that sim and the
+     * GUI create.
+     * 
+     * @return World size. Default is 4.
+     */
+    public static int getWorldSize()
+    {
+        return Math.max(4, getInt("WorldSize", 4));
+    }
+    
+    /**
+     * Returns the share of the squares that have pits in
+     * generated map corpora.
+     * 
+     * @return Pit density. Default is MapGenerator.PIT_DENSITY.
+     */
+    public static double getPitDensity()
+    {
+        try
+        {
+            double density = Double.parseDouble(getValue("PitDensity", "" + MapGenerator.PIT_DENSITY));
+            if (density >= 0 && density <= 1) return density;
+        }
+        catch (NumberFormatException ex)
+        {
+            
+        }
+        return MapGenerator.PIT_DENSITY;
+    }
+    
+    /**
+     * Checks where sim and eval get their maps from ('random',
+     * 'corpus' or 'mapfile').
+     * 
+     * @return Map source. Default is 'random'.
+     */
+    public static String getMapSource()
+    {
+        String source = getValue("MapSource", "random");
+        if (source.equalsIgnoreCase("corpus")) return "corpus";
+        if (source.equalsIgnoreCase("mapfile")) return "mapfile";
+        return "random";
+    }
+    
+    /**
+     * Returns the number of threads to run simulations on. 1 runs
+     * the simulation sequentially, 0 uses one thread per processor.
+     * 
+     * @return Number of simulation threads. Default is 1.
+     */
+    public static int getThreads()
+    {
+        int threads = getInt("Threads", 1);
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        return threads;
+    }
+    
+    /**
+     * Checks how parallel simulations share the Q-table ('hogwild'
+     * or 'perworker').
+     * 
+     * @return Sharing strategy. Default is 'hogwild'.
+     */
+    public static String getQSharing()
+    {
+        String sharing = getValue("QSharing", "hogwild");
+        if (sharing.equalsIgnoreCase("perworker")) return "perworker";
+        return "hogwild";
+    }
+    
+    /**
+     * Checks how the Q-learning agent reduces states by
+     * symmetry ('none', 'egocentric' or 'mirror').
+     * 
+     * @return Symmetry reduction. Default is 'none'.
+     */
+    public static String getSymmetry()
+    {
+        String symmetry = getValue("Symmetry", "none");
+        if (symmetry.equalsIgnoreCase("egocentric")) return "egocentric";
+        if (symmetry.equalsIgnoreCase("mirror")) return "mirror";
+        return "none";
+    }
+    
+    /**
+     * Checks the precision Q-values are kept in ('double',
+     * 'float' or 'short').
+     * 
+     * @return Q-value type. Default is 'double'.
+     */
+    public static String getQValueType()
+    {
+        String type = getValue("QValueType", "double");
+        if (type.equalsIgnoreCase("float")) return "float";
+        if (type.equalsIgnoreCase("short")) return "short";
+        return "double";
+    }
 }
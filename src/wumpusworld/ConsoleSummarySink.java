@@ -0,0 +1,60 @@
+package wumpusworld;
+
+/**
+ * Prints a one-line summary of the statistics of the
+ * episodes so far, at most once per interval, and a last
+ * one when closed.
+ */
+public class ConsoleSummarySink implements EpisodeSink
+{
+    private long interval;
+    private long start;
+    private long nextPrint;
+    private RunStatistics stats;
+    
+    /**
+     * Creates a new summary sink.
+     * 
+     * @param interval Minimum time between summaries, in milliseconds
+     * @param actionLimit Max number of actions in an episode
+     */
+    public ConsoleSummarySink(long interval, int actionLimit)
+    {
+        this.interval = interval;
+        stats = new RunStatistics(actionLimit);
+        start = System.currentTimeMillis();
+        nextPrint = start + interval;
+    }
+    
+    @Override
+    public void episodeEnded(int episode, int score, int actions, int outcome)
+    {
+        stats.add(score, actions, outcome);
+        
+        long now = System.currentTimeMillis();
+        if (now >= nextPrint)
+        {
+            print(now);
+            nextPrint = now + interval;
+        }
+    }
+    
+    @Override
+    public void close()
+    {
+        print(System.currentTimeMillis());
+    }
+    
+    /**
+     * Prints the summary.
+     * 
+     * @param now Current time
+     */
+    private void print(long now)
+    {
+        if (stats.getCount() == 0) return;
+        
+        double seconds = Math.max(1, now - start) / 1000.0;
+        System.out.println(stats.getSummary() + ", " + String.format("%.0f", stats.getCount() / seconds) + " episodes/s");
+    }
+}
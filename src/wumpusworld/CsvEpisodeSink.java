@@ -0,0 +1,47 @@
+package wumpusworld;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes episode results to a CSV file with the columns
+ * episode, score, actions and outcome.
+ */
+public class CsvEpisodeSink implements EpisodeSink
+{
+    private BufferedWriter out;
+    
+    /**
+     * Creates a new CSV file, replacing any existing file.
+     * 
+     * @param file File to write
+     * @throws IOException If the file could not be created
+     */
+    public CsvEpisodeSink(File file) throws IOException
+    {
+        out = new BufferedWriter(new FileWriter(file), 1 << 16);
+        out.write("episode,score,actions,outcome");
+        out.newLine();
+    }
+    
+    @Override
+    public void episodeEnded(int episode, int score, int actions, int outcome) throws IOException
+    {
+        out.write(Integer.toString(episode));
+        out.write(',');
+        out.write(Integer.toString(score));
+        out.write(',');
+        out.write(Integer.toString(actions));
+        out.write(',');
+        out.write(EpisodeOutcome.getName(outcome));
+        out.newLine();
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,43 @@
+package wumpusworld;
+
+/**
+ * How a simulation episode ended.
+ */
+public class EpisodeOutcome
+{
+    //The player grabbed the gold.
+    public static final int GOLD = 0;
+    //The player walked into the Wumpus.
+    public static final int DEATH = 1;
+    //The episode was stopped after the action limit.
+    public static final int TIMEOUT = 2;
+    
+    public static final int COUNT = 3;
+    
+    private static final String[] NAMES = {"gold", "death", "timeout"};
+    
+    /**
+     * Returns the outcome of an episode that has ended in
+     * a world.
+     * 
+     * @param w Wumpus World
+     * @return Outcome (see outcome constants)
+     */
+    public static int get(World w)
+    {
+        if (!w.gameOver()) return TIMEOUT;
+        if (w.hasGold()) return GOLD;
+        return DEATH;
+    }
+    
+    /**
+     * Returns the name of an outcome.
+     * 
+     * @param outcome Outcome (see outcome constants)
+     * @return Name of the outcome
+     */
+    public static String getName(int outcome)
+    {
+        return NAMES[outcome];
+    }
+}
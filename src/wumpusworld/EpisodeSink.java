@@ -0,0 +1,30 @@
+package wumpusworld;
+
+import java.io.IOException;
+
+/**
+ * Receives the result of every simulation episode. Sinks
+ * are not thread-safe unless they say so; simulations
+ * report through an AsyncEpisodeSink, which hands the
+ * results to its sinks on a single writer thread.
+ */
+public interface EpisodeSink
+{
+    /**
+     * Called when an episode has ended.
+     * 
+     * @param episode Episode index
+     * @param score Achieved score
+     * @param actions Number of actions taken
+     * @param outcome How the episode ended (see EpisodeOutcome)
+     * @throws IOException If the result could not be written
+     */
+    void episodeEnded(int episode, int score, int actions, int outcome) throws IOException;
+    
+    /**
+     * Called after the last episode.
+     * 
+     * @throws IOException If the sink could not be closed
+     */
+    void close() throws IOException;
+}
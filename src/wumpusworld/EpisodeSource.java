@@ -0,0 +1,16 @@
+package wumpusworld;
+
+/**
+ * Creates the worlds played in a simulation, one per
+ * episode.
+ */
+public interface EpisodeSource 
+{
+    /**
+     * Creates the world to play in an episode.
+     * 
+     * @param episode Episode index
+     * @return Wumpus World instance
+     */
+    public World createWorld(int episode);
+}
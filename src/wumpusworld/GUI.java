@@ -4,11 +4,13 @@ import javax.swing.*;
 import java.awt.event.*;
 import java.awt.*;
 import java.io.File;
+import java.util.HashMap;
 import java.util.Vector;
 
 /**
- * GUI for the Wumpus World. Only supports worlds of 
- * size 4.
+ * GUI for the Wumpus World. The board is rebuilt to the
+ * size of the world when a new game starts, and is best
+ * suited for small worlds.
  * 
  * @author Johan Hagelbäck
  */
@@ -19,10 +21,11 @@ public class GUI implements ActionListener
     private JLabel score;
     private JLabel status;
     private World w;
-    private Agent agent;
+    private MyAgent agent;
     private JPanel[][] blocks;
     private JComboBox mapList;
     private Vector<WorldMap> maps;
+    private HashMap<String,Integer> actionCommands;
     
     private ImageIcon l_breeze;
     private ImageIcon l_stench;
@@ -53,7 +56,7 @@ public class GUI implements ActionListener
         }
         else
         {
-            w = MapGenerator.getRandomMap((int)System.currentTimeMillis()).generateWorld();
+            w = MapGenerator.getRandomMap((int)System.currentTimeMillis(), Config.getWorldSize()).generateWorld();
         }
         
         l_breeze = new ImageIcon("gfx/B.png");
@@ -66,6 +69,14 @@ public class GUI implements ActionListener
         l_player_left = new ImageIcon("gfx/PL.png");
         l_player_right = new ImageIcon("gfx/PR.png");
         
+        actionCommands = new HashMap<String,Integer>();
+        actionCommands.put("TL", World.ACTION_TURN_LEFT);
+        actionCommands.put("TR", World.ACTION_TURN_RIGHT);
+        actionCommands.put("MF", World.ACTION_MOVE);
+        actionCommands.put("GRAB", World.ACTION_GRAB);
+        actionCommands.put("CLIMB", World.ACTION_CLIMB);
+        actionCommands.put("SHOOT", World.ACTION_SHOOT);
+        
         createWindow();
     }
     
@@ -114,26 +125,19 @@ public class GUI implements ActionListener
         frame.setSize(820, 640);
         frame.getContentPane().setLayout(new FlowLayout());
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                closeAgent();
+            }
+        });
         
         gamepanel = new JPanel();
         gamepanel.setPreferredSize(new Dimension(600,600));
         gamepanel.setBackground(Color.GRAY);
-        gamepanel.setLayout(new GridLayout(4,4));
-        
-        //Add blocks
-        blocks = new JPanel[4][4];
-        for (int j = 3; j >= 0; j--)
-        {
-            for (int i = 0; i < 4; i++)
-            {
-                blocks[i][j] = new JPanel();
-                blocks[i][j].setBackground(Color.white);
-                blocks[i][j].setPreferredSize(new Dimension(150,150));
-                blocks[i][j].setBorder(BorderFactory.createLineBorder(Color.black));
-                blocks[i][j].setLayout(new GridLayout(2,2));
-                gamepanel.add(blocks[i][j]);
-            }
-        }
+        createBlocks();
         frame.getContentPane().add(gamepanel);
         
         //Add buttons panel
@@ -207,6 +211,32 @@ public class GUI implements ActionListener
         frame.setVisible(true);
     }
     
+    /**
+     * Creates one block in the game panel for every square
+     * in the current world.
+     */
+    private void createBlocks()
+    {
+        int size = w.getSize();
+        int blockSize = Math.max(1, 600 / size);
+        gamepanel.removeAll();
+        gamepanel.setLayout(new GridLayout(size,size));
+        
+        blocks = new JPanel[size][size];
+        for (int j = size - 1; j >= 0; j--)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                blocks[i][j] = new JPanel();
+                blocks[i][j].setBackground(Color.white);
+                blocks[i][j].setPreferredSize(new Dimension(blockSize,blockSize));
+                blocks[i][j].setBorder(BorderFactory.createLineBorder(Color.black));
+                blocks[i][j].setLayout(new GridLayout(2,2));
+                gamepanel.add(blocks[i][j]);
+            }
+        }
+    }
+    
     /**
      * Button commands.
      * 
@@ -214,34 +244,10 @@ public class GUI implements ActionListener
      */
     public void actionPerformed(ActionEvent e)
     {
-        if (e.getActionCommand().equals("TL"))
-        {
-            w.doAction(World.A_TURN_LEFT);
-            updateGame();
-        }
-        if (e.getActionCommand().equals("TR"))
-        {
-            w.doAction(World.A_TURN_RIGHT);
-            updateGame();
-        }
-        if (e.getActionCommand().equals("MF"))
-        {
-            w.doAction(World.A_MOVE);
-            updateGame();
-        }
-        if (e.getActionCommand().equals("GRAB"))
-        {
-            w.doAction(World.A_GRAB);
-            updateGame();
-        }
-        if (e.getActionCommand().equals("CLIMB"))
-        {
-            w.doAction(World.A_CLIMB);
-            updateGame();
-        }
-        if (e.getActionCommand().equals("SHOOT"))
+        Integer action = actionCommands.get(e.getActionCommand());
+        if (action != null)
         {
-            w.doAction(World.A_SHOOT);
+            w.doAction(action);
             updateGame();
         }
         if (e.getActionCommand().equals("NEW"))
@@ -249,7 +255,7 @@ public class GUI implements ActionListener
             String s = (String)mapList.getSelectedItem();
             if (s.equalsIgnoreCase("Random"))
             {
-                w = MapGenerator.getRandomMap((int)System.currentTimeMillis()).generateWorld();
+                w = MapGenerator.getRandomMap((int)System.currentTimeMillis(), Config.getWorldSize()).generateWorld();
             }
             else
             {
@@ -257,6 +263,11 @@ public class GUI implements ActionListener
                 i--;
                 w = maps.get(i).generateWorld();
             }
+            if (w.getSize() != blocks.length)
+            {
+                createBlocks();
+            }
+            closeAgent();
             agent = new MyAgent(w);
             updateGame();
         }
@@ -271,14 +282,26 @@ public class GUI implements ActionListener
         }
     }
     
+    /**
+     * Saves what the agent has learned in the current game,
+     * if there is an agent.
+     */
+    private void closeAgent()
+    {
+        if (agent != null)
+        {
+            agent.close();
+        }
+    }
+    
     /**
      * Updates the game GUI to a new world state.
      */
     private void updateGame()
     {
-        for (int i = 0; i < 4; i++)
+        for (int i = 0; i < w.getSize(); i++)
         {
-            for (int j = 0; j < 4; j++)
+            for (int j = 0; j < w.getSize(); j++)
             {
                 blocks[i][j].removeAll();
                 blocks[i][j].setBackground(Color.WHITE);
@@ -0,0 +1,417 @@
+package wumpusworld;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fixed corpus of random maps in a binary file, so that
+ * simulations can be trained and evaluated on the same maps
+ * every run without generating them.
+ * 
+ * The corpus is generated once by MapGenerator, in parallel,
+ * from a range of seeds. Map i is the map of seed
+ * firstSeed + i. The file is laid out as:
+ * 
+ *   header   MAGIC, VERSION, map size, record size, map count,
+ *            first seed, Wumpus slots, gold slots (ints) and
+ *            the pit density (double)
+ *   records  map count fixed-width records: a bit set of the
+ *            pit squares (bit c % 8 of byte c / 8), then one
+ *            unsigned short square index per Wumpus slot and
+ *            per gold slot, or NO_SQUARE for an empty slot
+ * 
+ * Squares are indices (x-1) + (y-1) * size, as in World. As
+ * the records have a fixed width, map i is found at offset
+ * HEADER_SIZE + i * record size. All values are big-endian.
+ * 
+ * Reading the corpus maps the file, and maps are decoded from
+ * the mapped records when they are played. A corpus can be
+ * read by any number of threads. Files must be smaller than
+ * 2 GB.
+ */
+public class MapCorpus implements EpisodeSource
+{
+    public static final int MAGIC = 0x574D4150; // "WMAP"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+    public static final int NO_SQUARE = 0xFFFF;
+    //Square indices are unsigned shorts.
+    public static final int MAX_SIZE = 255;
+    
+    //Maps generated by one task.
+    private static final int CHUNK = 4096;
+    
+    private MappedByteBuffer buffer;
+    private int size;
+    private int recordSize;
+    private int count;
+    private int firstSeed;
+    private int wumpusSlots;
+    private int goldSlots;
+    private double pitDensity;
+    private int pitBytes;
+    
+    /**
+     * Opens a map corpus file.
+     * 
+     * @param file Corpus file
+     * @throws IOException If the file could not be read or is not a map corpus
+     */
+    public MapCorpus(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel())
+        {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Map corpus is too large to map: " + file);
+            if (channel.size() < HEADER_SIZE) throw new IOException("Not a map corpus: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        
+        if (buffer.getInt(0) != MAGIC) throw new IOException("Not a map corpus: " + file);
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported map corpus version " + buffer.getInt(4) + " in " + file);
+        size = buffer.getInt(8);
+        recordSize = buffer.getInt(12);
+        count = buffer.getInt(16);
+        firstSeed = buffer.getInt(20);
+        wumpusSlots = buffer.getInt(24);
+        goldSlots = buffer.getInt(28);
+        pitDensity = buffer.getDouble(32);
+        pitBytes = getPitBytes(size);
+        
+        if (recordSize != getRecordSize(size, wumpusSlots, goldSlots)) throw new IOException("Map corpus record layout does not match in " + file);
+        if (HEADER_SIZE + (long)count * recordSize > buffer.capacity()) throw new IOException("Map corpus is truncated: " + file);
+    }
+    
+    /**
+     * Generates a corpus of random maps and writes it to a file.
+     * The maps are generated on several threads and written to
+     * a temporary file that then replaces the target.
+     * 
+     * @param file Corpus file
+     * @param size Size of the maps
+     * @param pitDensity Share of the squares with a pit, from 0 to 1
+     * @param firstSeed Seed of the first map
+     * @param count Number of maps
+     * @param threads Number of threads
+     * @throws IOException If the file could not be written
+     */
+    public static void generate(File file, int size, double pitDensity, int firstSeed, int count, int threads) throws IOException
+    {
+        if (size < 1 || size > MAX_SIZE) throw new IllegalArgumentException("Map size must be between 1 and " + MAX_SIZE + ": " + size);
+        if (pitDensity < 0 || pitDensity > 1) throw new IllegalArgumentException("Pit density must be between 0 and 1: " + pitDensity);
+        if (count < 0) throw new IllegalArgumentException("Map count must not be negative: " + count);
+        
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel())
+        {
+            channel.truncate(0);
+            CorpusWriter writer = new CorpusWriter(channel, size, pitDensity, firstSeed, count);
+            writer.writeHeader();
+            
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+            try
+            {
+                pool.invoke(new ChunkTask(writer, 0, (count + CHUNK - 1) / CHUNK));
+            }
+            catch (RuntimeException ex)
+            {
+                //The pool may wrap the error of a worker thread again.
+                for (Throwable t = ex; t != null; t = t.getCause())
+                {
+                    if (t instanceof IOException) throw (IOException)t;
+                }
+                throw ex;
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+            channel.force(false);
+        }
+        
+        try
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex)
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Returns the size of the maps.
+     * 
+     * @return The size
+     */
+    public int getSize()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the number of maps in the corpus.
+     * 
+     * @return Number of maps
+     */
+    public int getMapCount()
+    {
+        return count;
+    }
+    
+    /**
+     * Returns the seed the first map was generated from.
+     * 
+     * @return Seed of map 0
+     */
+    public int getFirstSeed()
+    {
+        return firstSeed;
+    }
+    
+    /**
+     * Returns the share of the squares the maps have pits in.
+     * 
+     * @return Pit density
+     */
+    public double getPitDensity()
+    {
+        return pitDensity;
+    }
+    
+    /**
+     * Returns a map. It is the same map as MapGenerator creates
+     * from the seed firstSeed + index.
+     * 
+     * @param index Map index, from 0 to getMapCount() - 1
+     * @return The map
+     */
+    public WorldMap getMap(int index)
+    {
+        int offset = recordOffset(index);
+        WorldMap map = new WorldMap(size);
+        for (int i = 0; i < wumpusSlots; i++)
+        {
+            int c = buffer.getShort(offset + pitBytes + 2 * i) & 0xFFFF;
+            if (c != NO_SQUARE) map.addWumpus(c % size + 1, c / size + 1);
+        }
+        for (int i = 0; i < goldSlots; i++)
+        {
+            int c = buffer.getShort(offset + pitBytes + 2 * (wumpusSlots + i)) & 0xFFFF;
+            if (c != NO_SQUARE) map.addGold(c % size + 1, c / size + 1);
+        }
+        for (int b = 0; b < pitBytes; b++)
+        {
+            int bits = buffer.get(offset + b) & 0xFF;
+            while (bits != 0)
+            {
+                int c = b * 8 + Integer.numberOfTrailingZeros(bits);
+                map.addPit(c % size + 1, c / size + 1);
+                bits &= bits - 1;
+            }
+        }
+        return map;
+    }
+    
+    /**
+     * Creates the world of a map. Episodes past the last map
+     * start over from the first map.
+     * 
+     * @param episode Episode index
+     * @return Wumpus World instance
+     */
+    @Override
+    public World createWorld(int episode)
+    {
+        return getMap(episode % count).generateWorld();
+    }
+    
+    /**
+     * Returns the offset of a map's record in the file.
+     * 
+     * @param index Map index
+     * @return Offset in bytes
+     */
+    private int recordOffset(int index)
+    {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Map " + index + " is not in the corpus of " + count + " maps");
+        return HEADER_SIZE + index * recordSize;
+    }
+    
+    /**
+     * Returns the number of bytes in the pit bit set of a map.
+     * 
+     * @param size Size of the map
+     * @return Number of bytes
+     */
+    private static int getPitBytes(int size)
+    {
+        return (size * size + 7) >>> 3;
+    }
+    
+    /**
+     * Returns the size of a map's record.
+     * 
+     * @param size Size of the map
+     * @param wumpusSlots Number of Wumpus slots
+     * @param goldSlots Number of gold slots
+     * @return Record size in bytes
+     */
+    private static int getRecordSize(int size, int wumpusSlots, int goldSlots)
+    {
+        return getPitBytes(size) + 2 * (wumpusSlots + goldSlots);
+    }
+    
+    /**
+     * Writes the header and the records of a new corpus file.
+     * Chunks of records can be written by several threads.
+     */
+    private static class CorpusWriter
+    {
+        private FileChannel channel;
+        private int size;
+        private double pitDensity;
+        private int firstSeed;
+        private int count;
+        private int wumpusSlots;
+        private int goldSlots;
+        private int recordSize;
+        
+        CorpusWriter(FileChannel channel, int size, double pitDensity, int firstSeed, int count)
+        {
+            this.channel = channel;
+            this.size = size;
+            this.pitDensity = pitDensity;
+            this.firstSeed = firstSeed;
+            this.count = count;
+            wumpusSlots = MapGenerator.getWumpusCount(size);
+            goldSlots = MapGenerator.getGoldCount(size);
+            recordSize = getRecordSize(size, wumpusSlots, goldSlots);
+        }
+        
+        /**
+         * Writes the header.
+         * 
+         * @throws IOException If the file could not be written
+         */
+        void writeHeader() throws IOException
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(size);
+            header.putInt(recordSize);
+            header.putInt(count);
+            header.putInt(firstSeed);
+            header.putInt(wumpusSlots);
+            header.putInt(goldSlots);
+            header.putDouble(pitDensity);
+            header.flip();
+            write(header, 0);
+        }
+        
+        /**
+         * Generates the maps of a chunk and writes their records.
+         * 
+         * @param chunk Chunk index
+         * @throws IOException If the file could not be written
+         */
+        void writeChunk(int chunk) throws IOException
+        {
+            int first = chunk * CHUNK;
+            int last = (int)Math.min((long)first + CHUNK, count);
+            ByteBuffer records = ByteBuffer.allocate((last - first) * recordSize);
+            byte[] pits = new byte[getPitBytes(size)];
+            for (int i = first; i < last; i++)
+            {
+                WorldMap map = MapGenerator.getRandomMap(firstSeed + i, size, pitDensity);
+                
+                Arrays.fill(pits, (byte)0);
+                for (int c = map.nextPit(0); c >= 0; c = map.nextPit(c + 1))
+                {
+                    pits[c >>> 3] |= 1 << (c & 7);
+                }
+                records.put(pits);
+                for (int w = 0; w < wumpusSlots; w++)
+                {
+                    records.putShort((short)(w < map.getWumpusCount() ? (map.getWumpusX(w) - 1) + (map.getWumpusY(w) - 1) * size : NO_SQUARE));
+                }
+                for (int g = 0; g < goldSlots; g++)
+                {
+                    records.putShort((short)(g < map.getGoldCount() ? (map.getGoldX(g) - 1) + (map.getGoldY(g) - 1) * size : NO_SQUARE));
+                }
+            }
+            records.flip();
+            write(records, HEADER_SIZE + (long)first * recordSize);
+        }
+        
+        /**
+         * Writes a whole buffer to a position in the file.
+         * 
+         * @param buffer Buffer to write
+         * @param position Position in the file
+         * @throws IOException If the file could not be written
+         */
+        private void write(ByteBuffer buffer, long position) throws IOException
+        {
+            while (buffer.hasRemaining())
+            {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+    
+    /**
+     * Writes a range of chunks, split in halves that idle
+     * threads steal from each other.
+     */
+    private static class ChunkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private CorpusWriter writer;
+        private int from;
+        private int to;
+        
+        ChunkTask(CorpusWriter writer, int from, int to)
+        {
+            this.writer = writer;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1)
+            {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(writer, from, mid), new ChunkTask(writer, mid, to));
+                return;
+            }
+            
+            try
+            {
+                for (int chunk = from; chunk < to; chunk++)
+                {
+                    writer.writeChunk(chunk);
+                }
+            }
+            catch (IOException ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
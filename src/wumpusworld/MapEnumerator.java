@@ -0,0 +1,78 @@
+package wumpusworld;
+
+/**
+ * Enumerates every map that MapGenerator can create. The
+ * generator places the Wumpus and the gold on any square
+ * but the start square, independently of each other, and
+ * three pits on distinct squares but the start square. Each
+ * of the 15 * 15 * C(15,3) = 102375 maps is numbered by an
+ * index, and as every placement is drawn uniformly, every
+ * map is equally likely to be generated.
+ */
+public class MapEnumerator implements EpisodeSource
+{
+    private static final int SIZE = 4;
+    private static final int SQUARES = SIZE * SIZE - 1;
+    private static final int PITS = 3;
+    
+    //Squares a map element can be placed on, as {x, y}.
+    private static final int[][] SQUARE_COORDINATES = new int[SQUARES][];
+    //Every set of pit squares, as indices into SQUARE_COORDINATES.
+    private static final int[][] PIT_SQUARES = new int[SQUARES * (SQUARES - 1) * (SQUARES - 2) / 6][];
+    
+    public static final int MAP_COUNT = SQUARES * SQUARES * PIT_SQUARES.length;
+    
+    static
+    {
+        int i = 0;
+        for (int y = 1; y <= SIZE; y++)
+        {
+            for (int x = 1; x <= SIZE; x++)
+            {
+                if (!(x == 1 && y == 1)) SQUARE_COORDINATES[i++] = new int[] {x, y};
+            }
+        }
+        
+        i = 0;
+        for (int a = 0; a < SQUARES; a++)
+        {
+            for (int b = a + 1; b < SQUARES; b++)
+            {
+                for (int c = b + 1; c < SQUARES; c++)
+                {
+                    PIT_SQUARES[i++] = new int[] {a, b, c};
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns a map.
+     * 
+     * @param index Map index, from 0 to MAP_COUNT - 1
+     * @return The map
+     */
+    public static WorldMap getMap(int index)
+    {
+        int pits = index % PIT_SQUARES.length;
+        index /= PIT_SQUARES.length;
+        int gold = index % SQUARES;
+        int wumpus = index / SQUARES;
+        
+        WorldMap map = new WorldMap(SIZE);
+        map.addWumpus(SQUARE_COORDINATES[wumpus][0], SQUARE_COORDINATES[wumpus][1]);
+        map.addGold(SQUARE_COORDINATES[gold][0], SQUARE_COORDINATES[gold][1]);
+        for (int p = 0; p < PITS; p++)
+        {
+            int[] square = SQUARE_COORDINATES[PIT_SQUARES[pits][p]];
+            map.addPit(square[0], square[1]);
+        }
+        return map;
+    }
+    
+    @Override
+    public World createWorld(int episode)
+    {
+        return getMap(episode).generateWorld();
+    }
+}
@@ -0,0 +1,36 @@
+package wumpusworld;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a map in a map file is malformed.
+ */
+public class MapFormatException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+    
+    private int lineNumber;
+    
+    /**
+     * Creates a new exception.
+     * 
+     * @param file Name of the map file
+     * @param lineNumber Line of the error, from 1
+     * @param message What is wrong
+     */
+    public MapFormatException(String file, int lineNumber, String message)
+    {
+        super(file + ":" + lineNumber + ": " + message);
+        this.lineNumber = lineNumber;
+    }
+    
+    /**
+     * Returns the line of the error.
+     * 
+     * @return Line number, from 1
+     */
+    public int getLineNumber()
+    {
+        return lineNumber;
+    }
+}
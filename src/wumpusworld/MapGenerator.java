@@ -1,105 +1,156 @@
 package wumpusworld;
 
+import java.util.BitSet;
 import java.util.Random;
 
 /**
  * This class generates random Wumpus World maps.
- *
+ * 
+ * The number of pits, Wumpuses and gold treasures grows with
+ * the size of the map, by the share of squares (other than the
+ * start square) they are placed in. The densities give the
+ * classic 4x4 map with three pits, one Wumpus and one gold.
+ * 
  * @author Johan Hagelbäck
  */
-public class MapGenerator 
+public class MapGenerator
 {
+    public static final double PIT_DENSITY = 3.0 / 15;
+    public static final double WUMPUS_DENSITY = 1.0 / 15;
+    public static final double GOLD_DENSITY = 1.0 / 15;
+    
     /**
-     * Generates a random Wumpus World map.
+     * Generates a random 4x4 Wumpus World map.
      * 
      * @param seed Seed for the randomizer. Same seed always results in the same random map.
      * @return Generated Wumpus World
      */
     public static WorldMap getRandomMap(int seed)
     {
+        return getRandomMap(seed, 4);
+    }
+    
+    /**
+     * Generates a random Wumpus World map of any size.
+     * 
+     * @param seed Seed for the randomizer. Same seed always results in the same random map.
+     * @param size Size of the map
+     * @return Generated Wumpus World
+     */
+    public static WorldMap getRandomMap(int seed, int size)
+    {
+        return getRandomMap(seed, size, PIT_DENSITY);
+    }
+    
+    /**
+     * Generates a random Wumpus World map with a share of
+     * the squares (other than the start square) in pits.
+     * 
+     * @param seed Seed for the randomizer. Same seed always results in the same random map.
+     * @param size Size of the map
+     * @param pitDensity Share of the squares with a pit, from 0 to 1
+     * @return Generated Wumpus World
+     */
+    public static WorldMap getRandomMap(int seed, int size, double pitDensity)
+    {
+        if (pitDensity < 0 || pitDensity > 1) throw new IllegalArgumentException("Pit density must be between 0 and 1: " + pitDensity);
+        
         Random rnd = new Random(seed);
-        WorldMap w = new WorldMap(4);
+        WorldMap w = new WorldMap(size);
+        int squares = size * size - 1;
+        
+        //Squares taken by each feature. Different features may share a square.
+        BitSet wumpuses = new BitSet(size * size);
+        BitSet golds = new BitSet(size * size);
+        BitSet pits = new BitSet(size * size);
         
-        addRandomWumpus(w,rnd);
-        addRandomGold(w,rnd);
-        addRandomPit(w,rnd);
-        addRandomPit(w,rnd);
-        addRandomPit(w,rnd);
+        for (int i = getWumpusCount(size); i > 0; i--)
+        {
+            int c = getRandomSquare(size, rnd, wumpuses);
+            w.addWumpus(c % size + 1, c / size + 1);
+        }
+        for (int i = getGoldCount(size); i > 0; i--)
+        {
+            int c = getRandomSquare(size, rnd, golds);
+            w.addGold(c % size + 1, c / size + 1);
+        }
+        for (int i = count(pitDensity, squares, 0); i > 0; i--)
+        {
+            int c = getRandomSquare(size, rnd, pits);
+            w.addPit(c % size + 1, c / size + 1);
+        }
         
         return w;
     }
     
     /**
-     * Adds a pit to a random square.
+     * Returns how many Wumpuses a random map has.
      * 
-     * @param w Wumpus World
-     * @param r Randomizer
+     * @param size Size of the map
+     * @return Number of Wumpuses
      */
-    private static void addRandomPit(WorldMap w, Random r)
+    static int getWumpusCount(int size)
     {
-        boolean valid = false;
-        while (!valid)
-        {
-            int x = rnd(r);
-            int y = rnd(r);
-            if (!(x == 1 && y == 1) && !w.hasPit(x, y))
-            {
-                valid = true;
-                w.addPit(x, y);
-            }
-        }
+        return count(WUMPUS_DENSITY, size * size - 1, 1);
     }
     
     /**
-     * Adds the Wumpus to a random square.
+     * Returns how many gold treasures a random map has.
      * 
-     * @param w Wumpus World
-     * @param r Randomizer
+     * @param size Size of the map
+     * @return Number of gold treasures
      */
-    private static void addRandomWumpus(WorldMap w, Random r)
+    static int getGoldCount(int size)
     {
-        boolean valid = false;
-        while (!valid)
-        {
-            int x = rnd(r);
-            int y = rnd(r);
-            if (!(x == 1 && y == 1))
-            {
-                valid = true;
-                w.addWumpus(x, y);
-            }
-        }
+        return count(GOLD_DENSITY, size * size - 1, 1);
+    }
+    
+    /**
+     * Returns how many squares a feature is placed in.
+     * 
+     * @param density Share of the squares
+     * @param squares Number of squares
+     * @param min Least number of squares
+     * @return Number of squares
+     */
+    private static int count(double density, int squares, int min)
+    {
+        return Math.max(min, (int)Math.round(density * squares));
     }
     
     /**
-     * Adds the gold treasure to a random square.
+     * Picks a random square that is neither the start square
+     * nor taken, and marks it as taken.
      * 
-     * @param w Wumpus World
+     * @param size Size of the map
      * @param r Randomizer
+     * @param taken Squares already taken, by index (x-1) + (y-1) * size
+     * @return Index of the square
      */
-    private static void addRandomGold(WorldMap w, Random r)
+    private static int getRandomSquare(int size, Random r, BitSet taken)
     {
-        boolean valid = false;
-        while (!valid)
+        while (true)
         {
-            int x = rnd(r);
-            int y = rnd(r);
-            if (!(x == 1 && y == 1))
+            int x = rnd(r, size);
+            int y = rnd(r, size);
+            int c = (x - 1) + (y - 1) * size;
+            if (!(x == 1 && y == 1) && !taken.get(c))
             {
-                valid = true;
-                w.addGold(x, y);
+                taken.set(c);
+                return c;
             }
         }
     }
     
     /**
+     * Returns a random coordinate.
      * 
-     * 
-     * @param rnd
-     * @return 
+     * @param rnd Randomizer
+     * @param size Size of the map
+     * @return Coordinate between 1 and size
      */
-    private static int rnd(Random rnd)
+    private static int rnd(Random rnd, int size)
     {
-        return rnd.nextInt(4) + 1;
+        return rnd.nextInt(size) + 1;
     }
 }
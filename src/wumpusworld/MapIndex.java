@@ -0,0 +1,280 @@
+package wumpusworld;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An index of the maps in a map file, for reading any map
+ * without reading the file up to it. The index is kept in a
+ * side file next to the map file (the map file name plus
+ * ".idx"), and is built by reading the whole map file once,
+ * the first time it is opened and whenever the map file has
+ * changed since. Malformed maps are reported with their line
+ * numbers when the index is built, and left out of it.
+ *
+ * The index file is laid out as:
+ *
+ *   header   MAGIC, VERSION (ints), length and modification
+ *            time of the map file (longs), number of maps and
+ *            number of malformed maps (ints)
+ *   entries  one per map: the position of its NEW line in the
+ *            map file (long) and the line number (int)
+ *
+ * The index file is mapped, and maps are parsed from the map
+ * file when they are read, so neither file has to fit in
+ * memory. Maps can be read by any number of threads. Index
+ * files must be smaller than 2 GB, about 178 million maps.
+ */
+public class MapIndex implements EpisodeSource
+{
+    public static final int MAGIC = 0x574D4958; // "WMIX"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int ENTRY_SIZE = 12;
+
+    //Read buffer for one map.
+    private static final int MAP_BUFFER_SIZE = 1024;
+
+    private String mapFilename;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer index;
+    private int count;
+    private int malformed;
+
+    /**
+     * Opens the index of a map file, and builds it first if
+     * it is missing or out of date.
+     *
+     * @param mapFile The map file
+     * @return The index
+     * @throws IOException If the map file could not be read or the index could not be written
+     */
+    public static MapIndex open(File mapFile) throws IOException
+    {
+        File indexFile = new File(mapFile.getPath() + ".idx");
+        if (!isCurrent(indexFile, mapFile))
+        {
+            build(mapFile, indexFile);
+        }
+        return new MapIndex(mapFile, indexFile);
+    }
+
+    /**
+     * Opens an index file.
+     *
+     * @param mapFile The map file
+     * @param indexFile The index file
+     * @throws IOException If either file could not be read
+     */
+    private MapIndex(File mapFile, File indexFile) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+             FileChannel indexChannel = raf.getChannel())
+        {
+            if (indexChannel.size() > Integer.MAX_VALUE) throw new IOException("Map index is too large to map: " + indexFile);
+            index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+        }
+        count = index.getInt(24);
+        malformed = index.getInt(28);
+        if (HEADER_SIZE + (long)count * ENTRY_SIZE > index.capacity()) throw new IOException("Map index is truncated: " + indexFile);
+
+        mapFilename = mapFile.getPath();
+        file = new RandomAccessFile(mapFile, "r");
+        channel = file.getChannel();
+    }
+
+    /**
+     * Returns the number of maps in the map file, not
+     * counting malformed maps.
+     *
+     * @return Number of maps
+     */
+    public int getMapCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of malformed maps in the map file.
+     *
+     * @return Number of malformed maps
+     */
+    public int getMalformedCount()
+    {
+        return malformed;
+    }
+
+    /**
+     * Returns the line in the map file where a map starts.
+     *
+     * @param i Map index, from 0 to getMapCount() - 1
+     * @return Line number of the map's NEW line
+     */
+    public int getLine(int i)
+    {
+        return index.getInt(entryOffset(i) + 8);
+    }
+
+    /**
+     * Reads a map from the map file.
+     *
+     * @param i Map index, from 0 to getMapCount() - 1
+     * @return The map
+     * @throws IOException If the map could not be read, such as if the map file has changed
+     */
+    public WorldMap getMap(int i) throws IOException
+    {
+        int entry = entryOffset(i);
+        MapReader reader = new MapReader(mapFilename, channel, index.getLong(entry), index.getInt(entry + 8), MAP_BUFFER_SIZE);
+        WorldMap map = reader.nextMap();
+        if (map == null) throw new IOException("Map " + i + " is missing from " + mapFilename + ", rebuild the index");
+        return map;
+    }
+
+    /**
+     * Creates the world of a map. Episodes past the last map
+     * start over from the first map.
+     *
+     * @param episode Episode index
+     * @return Wumpus World instance
+     */
+    @Override
+    public World createWorld(int episode)
+    {
+        try
+        {
+            return getMap(episode % count).generateWorld();
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalStateException("Failed to read map " + (episode % count) + " from " + mapFilename, ex);
+        }
+    }
+
+    /**
+     * Closes the map file.
+     */
+    public void close()
+    {
+        try
+        {
+            file.close();
+        }
+        catch (IOException ex)
+        {
+
+        }
+    }
+
+    /**
+     * Returns the position of a map's entry in the index.
+     *
+     * @param i Map index
+     * @return Offset in bytes
+     */
+    private int entryOffset(int i)
+    {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Map " + i + " is not in the index of " + count + " maps");
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    /**
+     * Checks if an index file exists and was built from the
+     * map file as it is now.
+     *
+     * @param indexFile The index file
+     * @param mapFile The map file
+     * @return True if the index is up to date
+     * @throws IOException If the index file could not be read
+     */
+    private static boolean isCurrent(File indexFile, File mapFile) throws IOException
+    {
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) return false;
+
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r"))
+        {
+            return raf.readInt() == MAGIC
+                    && raf.readInt() == VERSION
+                    && raf.readLong() == mapFile.length()
+                    && raf.readLong() == mapFile.lastModified();
+        }
+    }
+
+    /**
+     * Builds the index of a map file by reading all maps in
+     * it. Malformed maps are reported and left out. The index
+     * is written to a temporary file that then replaces the
+     * index file.
+     *
+     * @param mapFile The map file
+     * @param indexFile The index file
+     * @throws IOException If the map file could not be read or the index could not be written
+     */
+    private static void build(File mapFile, File indexFile) throws IOException
+    {
+        if (!mapFile.isFile()) throw new IOException("Map file not found: " + mapFile);
+        long length = mapFile.length();
+        long modified = mapFile.lastModified();
+        int maps = 0;
+        int malformed = 0;
+
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        MapReader reader = new MapReader(mapFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)))
+        {
+            //The counts are filled in at the end.
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeInt(0);
+            out.writeInt(0);
+
+            while (true)
+            {
+                try
+                {
+                    if (reader.nextMap() == null) break;
+                    out.writeLong(reader.getMapOffset());
+                    out.writeInt(reader.getMapLine());
+                    maps++;
+                }
+                catch (MapFormatException ex)
+                {
+                    System.err.println(ex.getMessage());
+                    malformed++;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"))
+        {
+            raf.seek(24);
+            raf.writeInt(maps);
+            raf.writeInt(malformed);
+        }
+
+        try
+        {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex)
+        {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -1,112 +1,480 @@
 package wumpusworld;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Vector;
 /**
  * This class read maps from a file.
  * 
+ * The file is streamed through a small buffer and the maps
+ * are parsed one at a time by nextMap(), so files of any
+ * size can be read. A map is written as:
+ * 
+ *   NEW size
+ *   W x y      (a Wumpus)
+ *   P x y      (a pit)
+ *   G x y      (a gold treasure)
+ *   END
+ * 
+ * Keywords are not case sensitive, and blank lines and lines
+ * starting with # are skipped. A malformed map is reported
+ * with the line of the error, and reading goes on with the
+ * next map.
+ * 
  * @author Johan Hagelbäck
  */
 public class MapReader
 {
-    private Vector<WorldMap> maps;
+    //Largest map size that is read.
+    public static final int MAX_SIZE = 4096;
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EOF = -1;
+    
+    //Keywords, packed by readWord().
+    private static final int NEW = 'N' << 16 | 'E' << 8 | 'W';
+    private static final int END = 'E' << 16 | 'N' << 8 | 'D';
+    private static final int WUMPUS = 'W';
+    private static final int PIT = 'P';
+    private static final int GOLD = 'G';
+    
     private String mapFilename;
+    private FileChannel channel;
+    private boolean ownsChannel;
+    private byte[] buf;
+    private ByteBuffer wrapped;
+    //File offset of buf[0].
+    private long bufStart;
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private long mapOffset;
+    private int mapLine;
     
     /**
-     * Creates a new instance of the class.
+     * Creates a new instance of the class that reads the
+     * map file set in the config file.
      */
     public MapReader()
     {
         mapFilename = Config.getMapfile();
-        maps = new Vector<WorldMap>();
+    }
+    
+    /**
+     * Creates a new instance of the class that reads a
+     * map file.
+     * 
+     * @param file The map file
+     */
+    public MapReader(File file)
+    {
+        mapFilename = file.getPath();
+    }
+    
+    /**
+     * Creates a new instance of the class that reads from
+     * a position in an open map file, such as the start
+     * of a map found by MapIndex. The file is read with
+     * positional reads, so readers can share it.
+     * 
+     * @param name Name of the map file
+     * @param channel The open map file, which is not closed by close()
+     * @param offset Position to read from
+     * @param line Line number at the position
+     * @param bufferSize Size of the read buffer
+     */
+    MapReader(String name, FileChannel channel, long offset, int line, int bufferSize)
+    {
+        mapFilename = name;
+        this.channel = channel;
+        this.line = line;
+        bufStart = offset;
+        buf = new byte[bufferSize];
     }
     
     /**
      * Read the maps from the map file and returns a Vector
-     * with the maps. The program exits if an error is
-     * encountered.
+     * with the maps, and some random maps. Malformed maps
+     * are reported and skipped.
      * 
-     * @return A list of map objects, or empty list if none was found. 
+     * @return A list of map objects, or only the random maps if none was found.
      */
     public Vector<WorldMap> readMaps()
     {
+        Vector<WorldMap> maps = new Vector<WorldMap>();
         try
         {
-            BufferedReader reader = new BufferedReader(new FileReader(mapFilename));
-            
-            WorldMap wm = null;
-            String line = reader.readLine();
-            while (line != null)
+            while (true)
             {
-                line = line.toUpperCase();
-                
-                //New map
-                if (line.startsWith("NEW"))
+                try
                 {
-                    String[] t = split(line);
-                    int size = Integer.parseInt(t[1]);
-                    wm = new WorldMap(size);
+                    WorldMap wm = nextMap();
+                    if (wm == null) break;
+                    maps.add(wm);
                 }
-                
-                //Pit
-                if (line.startsWith("P"))
+                catch (MapFormatException ex)
                 {
-                    String[] t = split(line);
-                    int x = Integer.parseInt(t[1]);
-                    int y = Integer.parseInt(t[2]);
-                    wm.addPit(x,y);
+                    System.err.println(ex.getMessage());
                 }
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read map file " + mapFilename);
+        }
+        finally
+        {
+            close();
+        }
+        
+        //Add some random maps
+        maps.add(MapGenerator.getRandomMap(42));
+        maps.add(MapGenerator.getRandomMap(1977));
+        maps.add(MapGenerator.getRandomMap(1990));
+        
+        return maps;
+    }
+    
+    /**
+     * Reads the next map from the map file. If the map is
+     * malformed, the reader skips to the end of the map, so
+     * the next call reads the map after it.
+     * 
+     * @return The map, or null at the end of the file
+     * @throws MapFormatException If the map is malformed
+     * @throws IOException If the file could not be read
+     */
+    public WorldMap nextMap() throws IOException
+    {
+        if (channel == null)
+        {
+            channel = new FileInputStream(mapFilename).getChannel();
+            ownsChannel = true;
+            buf = new byte[BUFFER_SIZE];
+        }
+        
+        //Find the start of the map
+        if (skipBlankLines() == EOF) return null;
+        mapOffset = bufStart + pos;
+        mapLine = line;
+        
+        try
+        {
+            if (readKeyword() != NEW) throw error("Expected NEW");
+            int size = readInt("map size");
+            if (size < 1 || size > MAX_SIZE) throw error("Map size must be between 1 and " + MAX_SIZE + ": " + size);
+            endLine();
+            
+            WorldMap wm = new WorldMap(size);
+            while (true)
+            {
+                if (skipBlankLines() == EOF) throw error("Expected END before the end of the file");
                 
-                //Wumpus
-                if (line.startsWith("W"))
+                long lineStart = bufStart + pos;
+                int keyword = readKeyword();
+                if (keyword == END)
                 {
-                    String[] t = split(line);
-                    int x = Integer.parseInt(t[1]);
-                    int y = Integer.parseInt(t[2]);
-                    wm.addWumpus(x,y);
+                    endLine();
+                    return wm;
                 }
-                
-                //Gold
-                if (line.startsWith("G"))
+                if (keyword == NEW)
                 {
-                    String[] t = split(line);
-                    int x = Integer.parseInt(t[1]);
-                    int y = Integer.parseInt(t[2]);
-                    wm.addGold(x,y);
+                    //Leave the next map to be read
+                    seek(lineStart);
+                    break;
                 }
                 
-                //End of map
-                if (line.startsWith("END"))
-                {
-                    maps.add(wm);
-                }
+                int x = readInt("X position");
+                int y = readInt("Y position");
+                if (x < 1 || y < 1 || x > size || y > size) throw error("Position " + x + " " + y + " is outside the map");
+                endLine();
                 
-                line = reader.readLine();
+                if (keyword == WUMPUS) wm.addWumpus(x,y);
+                if (keyword == PIT) wm.addPit(x,y);
+                if (keyword == GOLD) wm.addGold(x,y);
             }
-            
-            reader.close();
         }
-        catch (Exception ex)
+        catch (MapFormatException ex)
+        {
+            skipMap();
+            throw ex;
+        }
+        throw error("Expected END before NEW");
+    }
+    
+    /**
+     * Returns the position in the file of the map last read.
+     * 
+     * @return Offset of its NEW line
+     */
+    long getMapOffset()
+    {
+        return mapOffset;
+    }
+    
+    /**
+     * Returns the line of the map last read.
+     * 
+     * @return Line number of its NEW line
+     */
+    int getMapLine()
+    {
+        return mapLine;
+    }
+    
+    /**
+     * Closes the map file.
+     */
+    public void close()
+    {
+        try
+        {
+            if (channel != null && ownsChannel) channel.close();
+        }
+        catch (IOException ex)
         {
             
         }
+    }
+    
+    /**
+     * Skips blank lines and comments.
+     * 
+     * @return The first character of the next line, or EOF
+     * @throws IOException If the file could not be read
+     */
+    private int skipBlankLines() throws IOException
+    {
+        while (true)
+        {
+            int c = skipSpaces();
+            if (c == '#')
+            {
+                skipLine();
+            }
+            else if (c == '\n')
+            {
+                pos++;
+                line++;
+            }
+            else
+            {
+                return c;
+            }
+        }
+    }
+    
+    /**
+     * Skips the rest of the map, up to and including its END
+     * line, or up to the next NEW line.
+     * 
+     * @throws IOException If the file could not be read
+     */
+    private void skipMap() throws IOException
+    {
+        skipLine();
+        while (skipBlankLines() != EOF)
+        {
+            long lineStart = bufStart + pos;
+            int keyword = readWord();
+            if (keyword == NEW)
+            {
+                seek(lineStart);
+                return;
+            }
+            skipLine();
+            if (keyword == END) return;
+        }
+    }
+    
+    /**
+     * Reads a keyword.
+     * 
+     * @return NEW, END, WUMPUS, PIT or GOLD
+     * @throws IOException If the keyword is unknown, or the file could not be read
+     */
+    private int readKeyword() throws IOException
+    {
+        int keyword = readWord();
+        if (keyword == NEW || keyword == END || keyword == WUMPUS || keyword == PIT || keyword == GOLD) return keyword;
+        throw error("Expected NEW, END, W, P or G");
+    }
+    
+    /**
+     * Reads the first word on a line, packed in upper case
+     * with one character per byte. Only the first four
+     * characters of a longer word are read.
+     * 
+     * @return Packed word
+     * @throws IOException If the file could not be read
+     */
+    private int readWord() throws IOException
+    {
+        int word = 0;
+        int length = 0;
+        int c = peek();
+        while (c != EOF && c != ' ' && c != '\t' && c != '\r' && c != '\n' && length < 4)
+        {
+            word = word << 8 | Character.toUpperCase(c);
+            length++;
+            pos++;
+            c = peek();
+        }
+        return word;
+    }
+    
+    /**
+     * Reads an integer after spaces.
+     * 
+     * @param what What the integer is, for the error message
+     * @return The integer
+     * @throws IOException If there is no integer, or the file could not be read
+     */
+    private int readInt(String what) throws IOException
+    {
+        int c = skipSpaces();
+        boolean negative = c == '-';
+        if (negative)
+        {
+            pos++;
+            c = peek();
+        }
+        if (c < '0' || c > '9') throw error("Expected " + what);
         
-        //Add some random maps
-        maps.add(MapGenerator.getRandomMap(42));
-        maps.add(MapGenerator.getRandomMap(1977));
-        maps.add(MapGenerator.getRandomMap(1990));
+        long value = 0;
+        while (c >= '0' && c <= '9')
+        {
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) throw error("Too large " + what);
+            pos++;
+            c = peek();
+        }
+        if (c != EOF && c != ' ' && c != '\t' && c != '\r' && c != '\n') throw error("Expected " + what);
+        return (int)(negative ? -value : value);
+    }
+    
+    /**
+     * Reads the end of a line, where only spaces may be left.
+     * 
+     * @throws IOException If there is more on the line, or the file could not be read
+     */
+    private void endLine() throws IOException
+    {
+        int c = skipSpaces();
+        if (c == '\n')
+        {
+            pos++;
+            line++;
+        }
+        else if (c != EOF)
+        {
+            throw error("Unexpected '" + (char)c + "' at the end of the line");
+        }
+    }
+    
+    /**
+     * Skips the rest of the line.
+     * 
+     * @throws IOException If the file could not be read
+     */
+    private void skipLine() throws IOException
+    {
+        while (true)
+        {
+            if (pos == limit && !fill()) return;
+            
+            //Scan the buffer for the end of the line
+            for (; pos < limit; pos++)
+            {
+                if (buf[pos] == '\n')
+                {
+                    pos++;
+                    line++;
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Skips spaces, tabs and carriage returns.
+     * 
+     * @return The next character, or EOF
+     * @throws IOException If the file could not be read
+     */
+    private int skipSpaces() throws IOException
+    {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r')
+        {
+            pos++;
+            c = peek();
+        }
+        return c;
+    }
+    
+    /**
+     * Returns the next character without reading past it.
+     * 
+     * @return The character, or EOF
+     * @throws IOException If the file could not be read
+     */
+    private int peek() throws IOException
+    {
+        if (pos == limit && !fill()) return EOF;
+        return buf[pos] & 0xFF;
+    }
+    
+    /**
+     * Reads the next part of the file into the buffer.
+     * 
+     * @return False at the end of the file
+     * @throws IOException If the file could not be read
+     */
+    private boolean fill() throws IOException
+    {
+        bufStart += limit;
+        pos = 0;
+        limit = 0;
+        if (wrapped == null) wrapped = ByteBuffer.wrap(buf);
+        wrapped.clear();
         
-        return maps;
+        int n = 0;
+        while (n == 0) n = channel.read(wrapped, bufStart);
+        if (n < 0) return false;
+        limit = n;
+        return true;
+    }
+    
+    /**
+     * Moves back to an earlier position on the current line.
+     * 
+     * @param offset Position in the file
+     */
+    private void seek(long offset)
+    {
+        if (offset >= bufStart)
+        {
+            pos = (int)(offset - bufStart);
+        }
+        else
+        {
+            //The line started in the previous buffer
+            bufStart = offset;
+            limit = 0;
+            pos = 0;
+        }
     }
     
     /**
-     * Splits a string with whitespace as delimiter.
+     * Creates an error on the current line.
      * 
-     * @param line The string to split
-     * @return Tokens
+     * @param message What is wrong
+     * @return The error
      */
-    private String[] split(String line)
+    private MapFormatException error(String message)
     {
-        return line.split(" ");
+        return new MapFormatException(mapFilename, line, message);
     }
 }
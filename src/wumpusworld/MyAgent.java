@@ -1,7 +1,7 @@
 package wumpusworld;
 
 import qlearning.*;
-import java.util.HashMap;
+import java.util.Random;
 
 /**
  * Contans starting code for creating your own Wumpus World agent.
@@ -25,11 +25,28 @@ public class MyAgent implements Agent
         agent = new QLearningAgent(w);
     }
     
-    public MyAgent(World world, HashMap<QLearningAgent.State, double[]> Q) {
+    public MyAgent(World world, QTable Q) {
         w = world;
         agent = new QLearningAgent(w, Q);
     }
     
+    public MyAgent(World world, QTable Q, Random random) {
+        w = world;
+        agent = new QLearningAgent(w, Q, random);
+    }
+    
+    /**
+     * Turns learning on or off. An agent that does not
+     * learn plays its best actions and leaves the Q-table
+     * unchanged.
+     * 
+     * @param learning True to learn, false to only play
+     */
+    public void setLearning(boolean learning)
+    {
+        agent.setLearning(learning);
+    }
+    
     /**
      * Asks your solver agent to execute an action.
      */
@@ -37,4 +54,13 @@ public class MyAgent implements Agent
     {
         agent.doAction();
     }
+    
+    /**
+     * Saves what the agent has learned in a game that is
+     * left before it has ended.
+     */
+    public void close()
+    {
+        agent.close();
+    }
 }
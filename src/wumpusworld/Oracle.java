@@ -0,0 +1,264 @@
+package wumpusworld;
+
+import java.util.Arrays;
+
+/**
+ * Computes the best score that can be achieved in a world
+ * by a player that knows where every pit, Wumpus and gold
+ * treasure is. It is the baseline that the scores of the
+ * agents are compared with: the regret of an episode is the
+ * best score minus the achieved score.
+ * 
+ * The search is Dijkstra's algorithm over the player's
+ * square, direction, arrow, whether the Wumpus is alive and
+ * whether the player is in a pit, where the cost of an
+ * action is the score it loses in World.doAction(): 1 for
+ * every action, 10 more for shooting and 1000 more for
+ * moving into a pit. An episode ends by grabbing the gold
+ * (+1000), by walking into a live Wumpus (-1000, and -1000
+ * more if the square has a pit), or by running out of
+ * actions, so the best score is the best of the cheapest
+ * grab, the cheapest death and stalling until the action
+ * limit. The arrow is used when shooting the Wumpus makes
+ * the gold cheaper to reach.
+ * 
+ * Only the cheapest way to each state is kept, and an end
+ * is only counted if the cheapest way to it fits within
+ * the action limit.
+ */
+public class Oracle
+{
+    private static final int GOLD_REWARD = 1000;
+    private static final int DEATH_PENALTY = 1000;
+    private static final int PIT_PENALTY = 1000;
+    private static final int ARROW_COST = 10;
+    
+    //Direction indices match World's DIR constants.
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {1, 0, -1, 0};
+    
+    /**
+     * Returns the best score that can be achieved in a
+     * world from its current state.
+     * 
+     * @param w Wumpus World, which is not changed
+     * @param actionLimit Max number of actions, counted from the current state
+     * @return Best final score
+     */
+    public static int getBestScore(World w, int actionLimit)
+    {
+        if (w.gameOver()) return w.getScore();
+        
+        int size = w.getSize();
+        int cells = size * size;
+        //A stopped episode may take one action more than the limit.
+        int maxActions = actionLimit + 1;
+        
+        //Squares a shot from a square in a direction hits a Wumpus from.
+        boolean[] hits = new boolean[cells * 4];
+        for (int c = 0; c < cells; c++)
+        {
+            for (int d = 0; d < 4; d++)
+            {
+                int x = c % size;
+                int y = c / size;
+                while (x >= 0 && y >= 0 && x < size && y < size && !hits[c * 4 + d])
+                {
+                    hits[c * 4 + d] = (w.getCellFlags(x + y * size) & World.CELL_WUMPUS) != 0;
+                    x += DX[d];
+                    y += DY[d];
+                }
+            }
+        }
+        
+        int states = cells * 32;
+        int[] costs = new int[states];
+        int[] steps = new int[states];
+        Arrays.fill(costs, Integer.MAX_VALUE);
+        Heap heap = new Heap(states);
+        
+        int start = state(w.getCellIndex(w.getPlayerX(), w.getPlayerY()), w.getDirection(), w.hasArrow(), w.wumpusAlive(), w.isInPit());
+        costs[start] = 0;
+        heap.push(start, 0, 0);
+        
+        //Stall until the action limit
+        int best = -maxActions;
+        while (!heap.isEmpty())
+        {
+            int s = heap.pop();
+            int cost = heap.getCost();
+            int n = heap.getSteps();
+            if (cost > costs[s] || (cost == costs[s] && n > steps[s])) continue;
+            //Nothing reached from here can end better
+            if (GOLD_REWARD - cost - 1 <= best) break;
+            if (n >= maxActions) continue;
+            
+            int c = s >>> 5;
+            int d = (s >>> 3) & 3;
+            boolean arrow = (s & 4) != 0;
+            boolean alive = (s & 2) != 0;
+            boolean inPit = (s & 1) != 0;
+            int flags = w.getCellFlags(c);
+            
+            if ((flags & World.CELL_GLITTER) != 0)
+            {
+                best = Math.max(best, GOLD_REWARD - cost - 1);
+            }
+            
+            int x = c % size + DX[d];
+            int y = c / size + DY[d];
+            if (!inPit && x >= 0 && y >= 0 && x < size && y < size)
+            {
+                int next = x + y * size;
+                int nextFlags = w.getCellFlags(next);
+                boolean pit = (nextFlags & World.CELL_PIT) != 0;
+                if (alive && (nextFlags & World.CELL_WUMPUS) != 0)
+                {
+                    best = Math.max(best, -cost - 1 - DEATH_PENALTY - (pit ? PIT_PENALTY : 0));
+                }
+                else
+                {
+                    relax(heap, costs, steps, state(next, d, arrow, alive, pit), cost + 1 + (pit ? PIT_PENALTY : 0), n + 1);
+                }
+            }
+            relax(heap, costs, steps, state(c, (d + 3) & 3, arrow, alive, inPit), cost + 1, n + 1);
+            relax(heap, costs, steps, state(c, (d + 1) & 3, arrow, alive, inPit), cost + 1, n + 1);
+            if (inPit)
+            {
+                relax(heap, costs, steps, state(c, d, arrow, alive, false), cost + 1, n + 1);
+            }
+            if (arrow)
+            {
+                relax(heap, costs, steps, state(c, d, false, alive && !hits[c * 4 + d], inPit), cost + 1 + ARROW_COST, n + 1);
+            }
+        }
+        
+        return w.getScore() + best;
+    }
+    
+    /**
+     * Returns the best score that can be achieved on a map.
+     * 
+     * @param map Wumpus World map
+     * @param actionLimit Max number of actions in an episode
+     * @return Best final score
+     */
+    public static int getBestScore(WorldMap map, int actionLimit)
+    {
+        return getBestScore(map.getTemplate(), actionLimit);
+    }
+    
+    /**
+     * Lowers the cost of a state if a cheaper way to it,
+     * or an as cheap way with fewer actions, was found.
+     * 
+     * @param heap Queue of states to visit
+     * @param costs Cheapest known cost of each state
+     * @param steps Actions on the cheapest known way to each state
+     * @param s State
+     * @param cost Cost of the new way
+     * @param n Actions on the new way
+     */
+    private static void relax(Heap heap, int[] costs, int[] steps, int s, int cost, int n)
+    {
+        if (cost < costs[s] || (cost == costs[s] && n < steps[s]))
+        {
+            costs[s] = cost;
+            steps[s] = n;
+            heap.push(s, cost, n);
+        }
+    }
+    
+    /**
+     * Packs a search state into an index.
+     * 
+     * @param c Square index
+     * @param d Direction
+     * @param arrow True if the player has the arrow
+     * @param alive True if the Wumpus is alive
+     * @param inPit True if the player is in a pit
+     * @return State index
+     */
+    private static int state(int c, int d, boolean arrow, boolean alive, boolean inPit)
+    {
+        return c << 5 | d << 3 | (arrow ? 4 : 0) | (alive ? 2 : 0) | (inPit ? 1 : 0);
+    }
+    
+    /**
+     * A binary min-heap of states ordered by cost and then
+     * by number of actions. A state can be pushed more than
+     * once; stale entries are skipped when popped.
+     */
+    private static class Heap
+    {
+        //Cost in the high half, actions in the low half.
+        private long[] keys;
+        private int[] states;
+        private int length;
+        private long popped;
+        
+        Heap(int capacity)
+        {
+            keys = new long[Math.max(16, capacity)];
+            states = new int[keys.length];
+        }
+        
+        boolean isEmpty()
+        {
+            return length == 0;
+        }
+        
+        void push(int s, int cost, int n)
+        {
+            if (length == keys.length)
+            {
+                keys = Arrays.copyOf(keys, length * 2);
+                states = Arrays.copyOf(states, length * 2);
+            }
+            long key = (long)cost << 32 | n;
+            int i = length++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) break;
+                keys[i] = keys[parent];
+                states[i] = states[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            states[i] = s;
+        }
+        
+        int pop()
+        {
+            popped = keys[0];
+            int s = states[0];
+            long key = keys[--length];
+            int last = states[length];
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= length) break;
+                if (child + 1 < length && keys[child + 1] < keys[child]) child++;
+                if (keys[child] >= key) break;
+                keys[i] = keys[child];
+                states[i] = states[child];
+                i = child;
+            }
+            keys[i] = key;
+            states[i] = last;
+            return s;
+        }
+        
+        int getCost()
+        {
+            return (int)(popped >>> 32);
+        }
+        
+        int getSteps()
+        {
+            return (int)popped;
+        }
+    }
+}
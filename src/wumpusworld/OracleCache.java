@@ -0,0 +1,151 @@
+package wumpusworld;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the best scores the Oracle has computed, by the
+ * fingerprint of the map, so that each map is only solved
+ * once, across runs. Simulation threads can share a cache;
+ * they solve maps that are not in it on their own thread.
+ * 
+ * The cache is kept in a file that starts with MAGIC,
+ * VERSION, the action limit the scores were computed with
+ * and the number of entries (ints), followed by one entry
+ * per map: the fingerprint (long) and the best score (int).
+ * A file for another action limit is not used, and is
+ * replaced when the cache is saved.
+ */
+public class OracleCache
+{
+    public static final int MAGIC = 0x574F5243; // "WORC"
+    public static final int VERSION = 1;
+    
+    private File file;
+    private int actionLimit;
+    private ConcurrentHashMap<Long,Integer> scores = new ConcurrentHashMap<Long,Integer>();
+    private volatile boolean changed;
+    
+    /**
+     * Opens a cache, and reads the scores in its file if
+     * there is one.
+     * 
+     * @param file Cache file
+     * @param actionLimit Max number of actions in an episode
+     * @throws IOException If the file could not be read
+     */
+    public OracleCache(File file, int actionLimit) throws IOException
+    {
+        this.file = file;
+        this.actionLimit = actionLimit;
+        if (!file.exists()) return;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+        {
+            if (in.readInt() != MAGIC) throw new IOException("Not an oracle cache: " + file);
+            if (in.readInt() != VERSION) return;
+            if (in.readInt() != actionLimit) return;
+            
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                long fingerprint = in.readLong();
+                scores.put(fingerprint, in.readInt());
+            }
+        }
+    }
+    
+    /**
+     * Returns the best score that can be achieved in a world
+     * that has not been played yet, solving its map if it is
+     * not in the cache. Thread-safe.
+     * 
+     * @param w Wumpus World, which is not changed
+     * @return Best final score
+     */
+    public int getBestScore(World w)
+    {
+        Long fingerprint = w.fingerprint();
+        Integer score = scores.get(fingerprint);
+        if (score == null)
+        {
+            score = Oracle.getBestScore(w, actionLimit);
+            scores.put(fingerprint, score);
+            changed = true;
+        }
+        return score;
+    }
+    
+    /**
+     * Returns the best score that can be achieved on a map,
+     * solving it if it is not in the cache. Thread-safe.
+     * 
+     * @param map Wumpus World map
+     * @return Best final score
+     */
+    public int getBestScore(WorldMap map)
+    {
+        return getBestScore(map.getTemplate());
+    }
+    
+    /**
+     * Returns the number of maps in the cache.
+     * 
+     * @return Number of maps
+     */
+    public int size()
+    {
+        return scores.size();
+    }
+    
+    /**
+     * Writes the cache to its file if maps have been added.
+     * The cache is written to a temporary file that then
+     * replaces the file.
+     * 
+     * @throws IOException If the file could not be written
+     */
+    public void save() throws IOException
+    {
+        if (!changed) return;
+        
+        //Copy first, other threads may still add maps.
+        changed = false;
+        ArrayList<Map.Entry<Long,Integer>> entries = new ArrayList<Map.Entry<Long,Integer>>(scores.entrySet());
+        
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(actionLimit);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long,Integer> e : entries)
+            {
+                out.writeLong(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        }
+        
+        try
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex)
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
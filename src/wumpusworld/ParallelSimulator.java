@@ -0,0 +1,417 @@
+package wumpusworld;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import qlearning.ConcurrentQTable;
+import qlearning.FrozenPolicy;
+import qlearning.OpenAddressingQTable;
+import qlearning.PolicyAgent;
+import qlearning.QJournal;
+import qlearning.QTable;
+
+/**
+ * Runs simulation episodes in parallel on a fork-join pool. The
+ * episode indices are split into ranges that idle threads steal
+ * from each other, and each range gathers its own statistics,
+ * which are merged when the ranges are joined, so that no shared
+ * counter is updated.
+ *
+ * Every episode gets its own random generator, seeded from the
+ * episode index, so the agent's random choices in an episode do
+ * not depend on which thread runs it. The learned Q-values still
+ * depend on the order in which episodes finish. Episodes played
+ * by a compiled policy are seeded from the map instead, so that
+ * a map is played the same way whatever episode it is in, and
+ * its result can be reused (see ResultCache).
+ */
+public class ParallelSimulator
+{
+    //All threads update one shared lock-free table.
+    public static final String SHARE_HOGWILD = "hogwild";
+    //Each thread learns in its own copy, the copies are averaged at the end.
+    public static final String SHARE_PER_WORKER = "perworker";
+
+    private int threads;
+    private String sharing;
+    private int actionLimit;
+    private QTable Q;
+    private EpisodeSource source;
+    private QJournal journal;
+    private EpisodeSink sink;
+    private boolean learning = true;
+    private FrozenPolicy policy;
+    private OracleCache oracle;
+    private ResultCache results;
+    private ThreadLocal<QTable> workerTable;
+    private ArrayList<QTable> workerTables;
+
+    /**
+     * Creates a new parallel simulator.
+     *
+     * @param threads Number of threads
+     * @param sharing How threads share the Q-table (see Share constants)
+     * @param actionLimit Max number of actions in an episode
+     */
+    public ParallelSimulator(int threads, String sharing, int actionLimit)
+    {
+        this.threads = threads;
+        this.sharing = sharing;
+        this.actionLimit = actionLimit;
+    }
+
+    /**
+     * Sets a journal that is flushed while the episodes run.
+     * Only used with the hogwild strategy, where the journal
+     * must log the table passed to run().
+     *
+     * @param journal Journal, or null for none
+     */
+    public void setJournal(QJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets a sink that receives the result of every episode.
+     * The sink must be thread-safe, such as an AsyncEpisodeSink.
+     *
+     * @param sink Sink, or null for none
+     */
+    public void setSink(EpisodeSink sink)
+    {
+        this.sink = sink;
+    }
+
+    /**
+     * Turns learning on or off. Without learning the agents
+     * only read the Q-table, so all threads use the table
+     * passed to run() whatever the sharing strategy.
+     *
+     * @param learning True to learn, false to only evaluate
+     */
+    public void setLearning(boolean learning)
+    {
+        this.learning = learning;
+    }
+
+    /**
+     * Sets a compiled policy that plays the episodes instead
+     * of learning agents. The Q-table passed to run() is then
+     * not used.
+     *
+     * @param policy Policy, or null to play with the Q-table
+     */
+    public void setPolicy(FrozenPolicy policy)
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets an oracle that finds the best score of every
+     * episode, so that the statistics report the regret of
+     * the episodes.
+     *
+     * @param oracle Oracle cache, or null for no regret
+     */
+    public void setOracle(OracleCache oracle)
+    {
+        this.oracle = oracle;
+    }
+
+    /**
+     * Sets a cache of episode results. Maps that are in the
+     * cache are not played, their results are reported as
+     * if they were. Only used with a compiled policy, since
+     * learning agents do not play a map the same way twice.
+     *
+     * @param results Result cache, or null to play every episode
+     */
+    public void setResultCache(ResultCache results)
+    {
+        this.results = results;
+    }
+
+    /**
+     * Runs a number of episodes. With the hogwild strategy the
+     * table is updated in place if it is a ConcurrentQTable,
+     * otherwise a concurrent copy is learned.
+     *
+     * @param Q Q-table to learn from
+     * @param source Creates the world for each episode
+     * @param count Number of episodes
+     * @return Statistics over the episodes
+     */
+    public RunStatistics run(QTable Q, EpisodeSource source, int count)
+    {
+        this.source = source;
+        workerTables = new ArrayList<QTable>();
+        workerTable = null;
+
+        if (!isLearning())
+        {
+            this.Q = Q;
+        }
+        else if (sharing.equals(SHARE_PER_WORKER))
+        {
+            final QTable initial = Q;
+            this.Q = Q;
+            workerTable = new ThreadLocal<QTable>()
+            {
+                @Override
+                protected QTable initialValue()
+                {
+                    QTable copy = new OpenAddressingQTable(initial);
+                    synchronized (workerTables)
+                    {
+                        workerTables.add(copy);
+                    }
+                    return copy;
+                }
+            };
+        }
+        else
+        {
+            this.Q = Q instanceof ConcurrentQTable ? Q : new ConcurrentQTable(Q);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        RunStatistics stats;
+        try
+        {
+            int grain = Math.max(1, count / (threads * 16));
+            stats = pool.invoke(new EpisodeTask(0, count, grain));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        if (workerTable != null)
+        {
+            this.Q = merge(workerTables);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Returns the learned Q-table after a run.
+     *
+     * @return The Q-table
+     */
+    public QTable getQTable()
+    {
+        return Q;
+    }
+
+    /**
+     * Returns the seed for the random generator of an episode.
+     *
+     * @param episode Episode index
+     * @return Seed
+     */
+    public static long getEpisodeSeed(int episode)
+    {
+        //SplitMix64, so that neighbouring indices get unrelated streams.
+        return WorldMap.mix(episode * 0x9e3779b97f4a7c15L + 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Returns the seed for the random generator of an episode
+     * played by a compiled policy.
+     *
+     * @param fingerprint Fingerprint of the map
+     * @return Seed
+     */
+    public static long getMapSeed(long fingerprint)
+    {
+        return WorldMap.mix(fingerprint + 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Plays one episode.
+     *
+     * @param episode Episode index
+     * @param stats Statistics to add the result to
+     */
+    private void runEpisode(int episode, RunStatistics stats)
+    {
+        World w = source.createWorld(episode);
+        //Solve the world before it is played
+        int best = oracle != null ? oracle.getBestScore(w) : 0;
+        Agent a;
+        long fingerprint = 0;
+        if (policy != null)
+        {
+            fingerprint = w.fingerprint();
+            Long result = results != null ? results.get(fingerprint) : null;
+            if (result != null)
+            {
+                endEpisode(episode, best, ResultCache.getScore(result), ResultCache.getActions(result), ResultCache.getOutcome(result), stats);
+                return;
+            }
+            a = new PolicyAgent(w, policy, new Random(getMapSeed(fingerprint)));
+        }
+        else
+        {
+            MyAgent agent = new MyAgent(w, workerTable != null ? workerTable.get() : Q, new Random(getEpisodeSeed(episode)));
+            agent.setLearning(learning);
+            a = agent;
+        }
+
+        int actions = 0;
+        while (!w.gameOver())
+        {
+            a.doAction();
+            actions++;
+            if (actions > actionLimit)
+                break;
+        }
+        int score = w.getScore();
+        int outcome = EpisodeOutcome.get(w);
+        if (policy != null && results != null)
+        {
+            results.put(fingerprint, score, actions, outcome);
+        }
+        endEpisode(episode, best, score, actions, outcome, stats);
+    }
+
+    /**
+     * Reports the result of an episode.
+     *
+     * @param episode Episode index
+     * @param best Best score the oracle found, if there is an oracle
+     * @param score Final score
+     * @param actions Number of actions
+     * @param outcome How the episode ended (see EpisodeOutcome)
+     * @param stats Statistics to add the result to
+     */
+    private void endEpisode(int episode, int best, int score, int actions, int outcome, RunStatistics stats)
+    {
+        stats.add(score, actions, outcome);
+        if (oracle != null) stats.addRegret(best, score);
+        if (sink != null)
+        {
+            try
+            {
+                sink.episodeEnded(episode, score, actions, outcome);
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed to write episode log");
+            }
+        }
+    }
+
+    /**
+     * Flushes the journal if a flush is due.
+     */
+    private void flushJournal()
+    {
+        if (journal == null || workerTable != null || !isLearning())
+            return;
+        
+        try
+        {
+            journal.flushIfDue();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to write Q-Matrix log");
+        }
+    }
+
+    /**
+     * Checks if the episodes update the Q-table.
+     *
+     * @return True if the agents learn
+     */
+    private boolean isLearning()
+    {
+        return learning && policy == null;
+    }
+
+    /**
+     * Averages the tables learned by the workers. A state gets the
+     * mean of its values over the tables that contain it.
+     *
+     * @param tables Worker tables
+     * @return Merged table
+     */
+    private static QTable merge(ArrayList<QTable> tables)
+    {
+        int rows = 0;
+        for (QTable t : tables)
+        {
+            rows += t.size();
+        }
+
+        OpenAddressingQTable merged = new OpenAddressingQTable(rows);
+        int[] counts = new int[Math.max(1, rows)];
+        for (QTable t : tables)
+        {
+            for (int row = 0; row < t.size(); row++)
+            {
+                int m = merged.getRow(t.getState(row));
+                counts[m]++;
+                for (int a = 0; a < QTable.ACTION_COUNT; a++)
+                {
+                    merged.set(m, a, merged.get(m, a) + t.get(row, a));
+                }
+            }
+        }
+        for (int m = 0; m < merged.size(); m++)
+        {
+            for (int a = 0; a < QTable.ACTION_COUNT; a++)
+            {
+                merged.set(m, a, merged.get(m, a) / counts[m]);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Plays a range of episodes, splitting it while it is larger
+     * than the grain size.
+     */
+    private class EpisodeTask extends RecursiveTask<RunStatistics>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int from;
+        private int to;
+        private int grain;
+
+        EpisodeTask(int from, int to, int grain)
+        {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected RunStatistics compute()
+        {
+            if (to - from <= grain)
+            {
+                RunStatistics stats = new RunStatistics(actionLimit);
+                for (int i = from; i < to; i++)
+                {
+                    runEpisode(i, stats);
+                    flushJournal();
+                }
+                return stats;
+            }
+
+            int mid = (from + to) >>> 1;
+            EpisodeTask left = new EpisodeTask(from, mid, grain);
+            left.fork();
+            RunStatistics right = new EpisodeTask(mid, to, grain).compute();
+            right.merge(left.join());
+            return right;
+        }
+    }
+}
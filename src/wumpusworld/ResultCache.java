@@ -0,0 +1,268 @@
+package wumpusworld;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the results of episodes played by a compiled
+ * policy, so that a map that has been played by the same
+ * policy, with the same agent settings, is not played again,
+ * in this run or a later one. Such an episode always ends
+ * the same way, as long as the agent's random choices are
+ * seeded from the map (see ParallelSimulator).
+ * 
+ * Results are kept by the fingerprint of the map and a run
+ * key, a hash of the policy's fingerprint and the agent
+ * settings (see getRunKey()). A cache only looks up the
+ * results of one run key, but keeps the results of the
+ * other run keys in its file, so that switching back to
+ * an earlier policy finds its results again.
+ * 
+ * The cache file starts with MAGIC, VERSION and the number
+ * of entries (ints), followed by one entry per result: the
+ * run key and the map fingerprint (longs), the score and
+ * the number of actions (ints) and the outcome (byte).
+ */
+public class ResultCache
+{
+    public static final int MAGIC = 0x57524553; // "WRES"
+    public static final int VERSION = 1;
+    
+    private File file;
+    private long runKey;
+    //Results of this run key, packed by pack().
+    private ConcurrentHashMap<Long,Long> results = new ConcurrentHashMap<Long,Long>();
+    //Entries of other run keys, as they are in the file.
+    private byte[] others = new byte[0];
+    private int otherCount;
+    private volatile boolean changed;
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    
+    /**
+     * Opens a cache, and reads the results in its file if
+     * there is one.
+     * 
+     * @param file Cache file
+     * @param runKey Run key of the results to look up
+     * @throws IOException If the file could not be read
+     */
+    public ResultCache(File file, long runKey) throws IOException
+    {
+        this.file = file;
+        this.runKey = runKey;
+        if (!file.exists()) return;
+        
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        DataOutputStream keptOut = new DataOutputStream(kept);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+        {
+            if (in.readInt() != MAGIC) throw new IOException("Not a result cache: " + file);
+            if (in.readInt() != VERSION) return;
+            
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                long key = in.readLong();
+                long fingerprint = in.readLong();
+                int score = in.readInt();
+                int actions = in.readInt();
+                int outcome = in.readByte();
+                if (key == runKey)
+                {
+                    results.put(fingerprint, pack(score, actions, outcome));
+                }
+                else
+                {
+                    writeEntry(keptOut, key, fingerprint, score, actions, outcome);
+                    otherCount++;
+                }
+            }
+        }
+        others = kept.toByteArray();
+    }
+    
+    /**
+     * Returns the run key of a policy and the agent settings
+     * it is played with.
+     * 
+     * @param policyFingerprint Fingerprint of the compiled policy
+     * @param symmetry Symmetry reduction of the agent's states
+     * @param actionLimit Max number of actions in an episode
+     * @return Run key
+     */
+    public static long getRunKey(long policyFingerprint, int symmetry, int actionLimit)
+    {
+        long h = WorldMap.mix(policyFingerprint + VERSION);
+        h = WorldMap.mix(h ^ symmetry);
+        return WorldMap.mix(h ^ actionLimit);
+    }
+    
+    /**
+     * Looks up the result of a map. Thread-safe.
+     * 
+     * @param fingerprint Fingerprint of the map
+     * @return Packed result (see getScore(), getActions() and getOutcome()), or null if the map has not been played
+     */
+    public Long get(long fingerprint)
+    {
+        Long result = results.get(fingerprint);
+        if (result != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+        return result;
+    }
+    
+    /**
+     * Adds the result of a map. Thread-safe.
+     * 
+     * @param fingerprint Fingerprint of the map
+     * @param score Final score
+     * @param actions Number of actions
+     * @param outcome How the episode ended (see EpisodeOutcome)
+     */
+    public void put(long fingerprint, int score, int actions, int outcome)
+    {
+        results.put(fingerprint, pack(score, actions, outcome));
+        changed = true;
+    }
+    
+    /**
+     * Returns the score of a packed result.
+     * 
+     * @param result Packed result
+     * @return Final score
+     */
+    public static int getScore(long result)
+    {
+        return (int)(result >> 32);
+    }
+    
+    /**
+     * Returns the number of actions of a packed result.
+     * 
+     * @param result Packed result
+     * @return Number of actions
+     */
+    public static int getActions(long result)
+    {
+        return (int)(result >>> 8) & 0xFFFFFF;
+    }
+    
+    /**
+     * Returns the outcome of a packed result.
+     * 
+     * @param result Packed result
+     * @return How the episode ended (see EpisodeOutcome)
+     */
+    public static int getOutcome(long result)
+    {
+        return (int)result & 0xFF;
+    }
+    
+    /**
+     * Returns the number of lookups that found a result.
+     * 
+     * @return Number of hits
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+    
+    /**
+     * Returns the number of lookups that found no result.
+     * 
+     * @return Number of misses
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+    
+    /**
+     * Writes the cache to its file if results have been
+     * added. The cache is written to a temporary file that
+     * then replaces the file.
+     * 
+     * @throws IOException If the file could not be written
+     */
+    public void save() throws IOException
+    {
+        if (!changed) return;
+        
+        //Copy first, other threads may still add results.
+        changed = false;
+        ArrayList<Map.Entry<Long,Long>> entries = new ArrayList<Map.Entry<Long,Long>>(results.entrySet());
+        
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(otherCount + entries.size());
+            out.write(others);
+            for (Map.Entry<Long,Long> e : entries)
+            {
+                long result = e.getValue();
+                writeEntry(out, runKey, e.getKey(), getScore(result), getActions(result), getOutcome(result));
+            }
+        }
+        
+        try
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex)
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Packs a result into a long: the score in the high
+     * half, then the number of actions and the outcome.
+     * 
+     * @param score Final score
+     * @param actions Number of actions, less than 2^24
+     * @param outcome How the episode ended
+     * @return Packed result
+     */
+    private static long pack(int score, int actions, int outcome)
+    {
+        return (long)score << 32 | (long)(actions & 0xFFFFFF) << 8 | (outcome & 0xFF);
+    }
+    
+    /**
+     * Writes an entry of the cache file.
+     * 
+     * @param out Stream to write to
+     * @param key Run key
+     * @param fingerprint Fingerprint of the map
+     * @param score Final score
+     * @param actions Number of actions
+     * @param outcome How the episode ended
+     * @throws IOException If the entry could not be written
+     */
+    private static void writeEntry(DataOutputStream out, long key, long fingerprint, int score, int actions, int outcome) throws IOException
+    {
+        out.writeLong(key);
+        out.writeLong(fingerprint);
+        out.writeInt(score);
+        out.writeInt(actions);
+        out.writeByte(outcome);
+    }
+}
@@ -0,0 +1,443 @@
+package wumpusworld;
+
+/**
+ * Statistics over the episodes of a simulation, kept in
+ * fixed memory however many episodes are added. Tracks
+ * the mean and variance of the scores (Welford's method),
+ * score quantiles, a histogram of episode lengths and how
+ * often each outcome happens. If the best score of each
+ * episode is known (see Oracle), the regret of the episodes
+ * is tracked too: how far their scores fall short of the
+ * best scores.
+ * 
+ * Score quantiles come from a sketch with logarithmically
+ * sized buckets: a quantile is within QUANTILE_ACCURACY
+ * of the true value, relative to its magnitude.
+ * 
+ * Statistics gathered on different threads are combined
+ * with merge(). A single instance is not thread-safe.
+ */
+public class RunStatistics
+{
+    public static final double QUANTILE_ACCURACY = 0.01;
+    
+    private static final double GAMMA = (1 + QUANTILE_ACCURACY) / (1 - QUANTILE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    //Scores up to 10^7 in magnitude get their own buckets.
+    private static final int BUCKETS = (int)Math.ceil(Math.log(1e7) / LOG_GAMMA) + 1;
+    
+    private long count;
+    private double mean;
+    private double m2;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    
+    //Score buckets: negative scores, zero, positive scores.
+    private long[] negative = new long[BUCKETS];
+    private long zero;
+    private long[] positive = new long[BUCKETS];
+    
+    private long[] lengths;
+    private long totActions;
+    private long[] outcomes = new long[EpisodeOutcome.COUNT];
+    
+    //Regret, with a sketch of the positive regrets.
+    private long regretCount;
+    private long bestSum;
+    private long regretSum;
+    private int maxRegret;
+    private long optimal;
+    private long[] regrets = new long[BUCKETS];
+    
+    /**
+     * Creates empty statistics.
+     * 
+     * @param actionLimit Max number of actions in an episode
+     */
+    public RunStatistics(int actionLimit)
+    {
+        //A stopped episode may have taken one action more than the limit.
+        lengths = new long[actionLimit + 2];
+    }
+    
+    /**
+     * Adds the result of an episode.
+     * 
+     * @param score Achieved score
+     * @param actions Number of actions taken
+     * @param outcome How the episode ended (see EpisodeOutcome)
+     */
+    public void add(int score, int actions, int outcome)
+    {
+        count++;
+        double delta = score - mean;
+        mean += delta / count;
+        m2 += delta * (score - mean);
+        min = Math.min(min, score);
+        max = Math.max(max, score);
+        
+        if (score < 0) negative[bucket(-score)]++;
+        else if (score > 0) positive[bucket(score)]++;
+        else zero++;
+        
+        lengths[Math.min(actions, lengths.length - 1)]++;
+        totActions += actions;
+        outcomes[outcome]++;
+    }
+    
+    /**
+     * Adds the regret of an episode, in addition to its
+     * result added by add().
+     * 
+     * @param bestScore Best score that could have been achieved
+     * @param score Achieved score
+     */
+    public void addRegret(int bestScore, int score)
+    {
+        int regret = bestScore - score;
+        regretCount++;
+        bestSum += bestScore;
+        regretSum += regret;
+        maxRegret = Math.max(maxRegret, regret);
+        if (regret > 0) regrets[bucket(regret)]++;
+        else optimal++;
+    }
+    
+    /**
+     * Adds the episodes of other statistics to these. Both
+     * must have been created with the same action limit.
+     * 
+     * @param other Statistics to add
+     */
+    public void merge(RunStatistics other)
+    {
+        if (other.count == 0) return;
+        
+        long n = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / n;
+        m2 += other.m2 + delta * delta * count * other.count / n;
+        count = n;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            negative[i] += other.negative[i];
+            positive[i] += other.positive[i];
+        }
+        zero += other.zero;
+        
+        for (int i = 0; i < lengths.length; i++)
+        {
+            lengths[i] += other.lengths[i];
+        }
+        totActions += other.totActions;
+        for (int o = 0; o < EpisodeOutcome.COUNT; o++)
+        {
+            outcomes[o] += other.outcomes[o];
+        }
+        
+        regretCount += other.regretCount;
+        bestSum += other.bestSum;
+        regretSum += other.regretSum;
+        maxRegret = Math.max(maxRegret, other.maxRegret);
+        optimal += other.optimal;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            regrets[i] += other.regrets[i];
+        }
+    }
+    
+    /**
+     * Returns the number of episodes.
+     * 
+     * @return Number of episodes
+     */
+    public long getCount()
+    {
+        return count;
+    }
+    
+    /**
+     * Returns the mean score.
+     * 
+     * @return Mean score, or 0 if there are no episodes
+     */
+    public double getMean()
+    {
+        return mean;
+    }
+    
+    /**
+     * Returns the sample variance of the scores.
+     * 
+     * @return Variance, or 0 if there are less than two episodes
+     */
+    public double getVariance()
+    {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+    
+    /**
+     * Returns the sample standard deviation of the scores.
+     * 
+     * @return Standard deviation
+     */
+    public double getStandardDeviation()
+    {
+        return Math.sqrt(getVariance());
+    }
+    
+    /**
+     * Returns the lowest score.
+     * 
+     * @return Lowest score
+     */
+    public int getMin()
+    {
+        return min;
+    }
+    
+    /**
+     * Returns the highest score.
+     * 
+     * @return Highest score
+     */
+    public int getMax()
+    {
+        return max;
+    }
+    
+    /**
+     * Returns an estimate of a score quantile.
+     * 
+     * @param q Quantile, between 0 and 1
+     * @return Estimated score, or 0 if there are no episodes
+     */
+    public double getQuantile(double q)
+    {
+        if (count == 0) return 0;
+        
+        long rank = (long)(q * (count - 1));
+        long seen = 0;
+        double value = 0;
+        boolean found = false;
+        for (int i = BUCKETS - 1; i >= 0 && !found; i--)
+        {
+            seen += negative[i];
+            if (seen > rank)
+            {
+                value = -bucketValue(i);
+                found = true;
+            }
+        }
+        if (!found)
+        {
+            seen += zero;
+            found = seen > rank;
+        }
+        for (int i = 0; i < BUCKETS && !found; i++)
+        {
+            seen += positive[i];
+            if (seen > rank)
+            {
+                value = bucketValue(i);
+                found = true;
+            }
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+    
+    /**
+     * Returns the number of episodes that took a number of
+     * actions.
+     * 
+     * @param actions Number of actions
+     * @return Number of episodes
+     */
+    public long getLengthCount(int actions)
+    {
+        return lengths[actions];
+    }
+    
+    /**
+     * Returns the mean number of actions in an episode.
+     * 
+     * @return Mean number of actions
+     */
+    public double getMeanLength()
+    {
+        return count > 0 ? (double)totActions / count : 0;
+    }
+    
+    /**
+     * Returns how often episodes end with an outcome.
+     * 
+     * @param outcome Outcome (see EpisodeOutcome)
+     * @return Fraction of the episodes, between 0 and 1
+     */
+    public double getOutcomeRate(int outcome)
+    {
+        return count > 0 ? (double)outcomes[outcome] / count : 0;
+    }
+    
+    /**
+     * Returns the number of episodes with a known regret.
+     * 
+     * @return Number of episodes
+     */
+    public long getRegretCount()
+    {
+        return regretCount;
+    }
+    
+    /**
+     * Returns the mean best score of the episodes with a
+     * known regret.
+     * 
+     * @return Mean best score, or 0 if there are none
+     */
+    public double getMeanBestScore()
+    {
+        return regretCount > 0 ? (double)bestSum / regretCount : 0;
+    }
+    
+    /**
+     * Returns the mean regret.
+     * 
+     * @return Mean regret, or 0 if there are no episodes with a known regret
+     */
+    public double getMeanRegret()
+    {
+        return regretCount > 0 ? (double)regretSum / regretCount : 0;
+    }
+    
+    /**
+     * Returns how often episodes achieve the best score.
+     * 
+     * @return Fraction of the episodes with a known regret, between 0 and 1
+     */
+    public double getOptimalRate()
+    {
+        return regretCount > 0 ? (double)optimal / regretCount : 0;
+    }
+    
+    /**
+     * Returns an estimate of a regret quantile.
+     * 
+     * @param q Quantile, between 0 and 1
+     * @return Estimated regret, or 0 if there are no episodes with a known regret
+     */
+    public double getRegretQuantile(double q)
+    {
+        long rank = (long)(q * (regretCount - 1));
+        long seen = optimal;
+        for (int i = 0; i < BUCKETS && seen <= rank; i++)
+        {
+            seen += regrets[i];
+            if (seen > rank) return Math.min(maxRegret, bucketValue(i));
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns a one-line summary of the statistics.
+     * 
+     * @return Summary
+     */
+    public String getSummary()
+    {
+        String line = count + " episodes, score " + String.format("%.2f", mean)
+                + " +/- " + String.format("%.2f", getStandardDeviation())
+                + " (p50 " + String.format("%.0f", getQuantile(0.5))
+                + ", p90 " + String.format("%.0f", getQuantile(0.9))
+                + ", p99 " + String.format("%.0f", getQuantile(0.99)) + ")";
+        for (int o = 0; o < EpisodeOutcome.COUNT; o++)
+        {
+            line += ", " + EpisodeOutcome.getName(o) + " " + String.format("%.1f%%", 100 * getOutcomeRate(o));
+        }
+        line += ", " + String.format("%.1f", getMeanLength()) + " actions";
+        return line;
+    }
+    
+    /**
+     * Returns a report with the score statistics and a
+     * histogram of episode lengths, in ranges that double
+     * in size.
+     * 
+     * @return Report, one line per row
+     */
+    public String getReport()
+    {
+        String nl = System.getProperty("line.separator");
+        String report = "Episodes: " + count + nl;
+        report += "Score: mean " + String.format("%.2f", mean)
+                + ", std dev " + String.format("%.2f", getStandardDeviation())
+                + ", min " + min + ", max " + max + nl;
+        report += "Score quantiles:";
+        double[] qs = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99};
+        for (double q : qs)
+        {
+            report += " p" + Math.round(q * 100) + " " + String.format("%.0f", getQuantile(q));
+        }
+        report += nl + "Outcomes:";
+        for (int o = 0; o < EpisodeOutcome.COUNT; o++)
+        {
+            report += " " + EpisodeOutcome.getName(o) + " " + String.format("%.2f%%", 100 * getOutcomeRate(o));
+        }
+        if (regretCount > 0)
+        {
+            report += nl + "Best score: mean " + String.format("%.2f", getMeanBestScore());
+            report += nl + "Regret: mean " + String.format("%.2f", getMeanRegret())
+                    + ", max " + maxRegret
+                    + ", optimal " + String.format("%.2f%%", 100 * getOptimalRate());
+            for (double q : qs)
+            {
+                report += " p" + Math.round(q * 100) + " " + String.format("%.0f", getRegretQuantile(q));
+            }
+        }
+        report += nl + "Episode lengths (mean " + String.format("%.1f", getMeanLength()) + "):" + nl;
+        int from = 0;
+        int to = 1;
+        while (from < lengths.length)
+        {
+            long n = 0;
+            for (int i = from; i < Math.min(to, lengths.length); i++)
+            {
+                n += lengths[i];
+            }
+            if (n > 0)
+            {
+                String range = to - 1 > from ? from + "-" + (Math.min(to, lengths.length) - 1) : "" + from;
+                report += String.format("  %-10s %10d %6.2f%%", range, n, 100.0 * n / count) + nl;
+            }
+            from = to;
+            to *= 2;
+        }
+        return report;
+    }
+    
+    /**
+     * Returns the bucket of a positive score.
+     * 
+     * @param v Score magnitude, at least 1
+     * @return Bucket index
+     */
+    private static int bucket(int v)
+    {
+        return Math.min(BUCKETS - 1, (int)Math.ceil(Math.log(v) / LOG_GAMMA));
+    }
+    
+    /**
+     * Returns the value that represents a bucket, within the
+     * relative accuracy of every value in the bucket.
+     * 
+     * @param i Bucket index
+     * @return Score magnitude
+     */
+    private static double bucketValue(int i)
+    {
+        return 2 * Math.pow(GAMMA, i) / (GAMMA + 1);
+    }
+}
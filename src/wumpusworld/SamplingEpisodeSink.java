@@ -0,0 +1,47 @@
+package wumpusworld;
+
+import java.io.IOException;
+
+/**
+ * Passes on every Nth episode to another sink, together
+ * with the outliers: episodes that score below or above
+ * a limit.
+ */
+public class SamplingEpisodeSink implements EpisodeSink
+{
+    private EpisodeSink sink;
+    private int every;
+    private int below;
+    private int above;
+    
+    /**
+     * Creates a new sampling sink.
+     * 
+     * @param sink Sink that receives the sampled episodes
+     * @param every Pass on every Nth episode, or 0 for only outliers
+     * @param below Always pass on episodes scoring below this
+     * @param above Always pass on episodes scoring above this
+     */
+    public SamplingEpisodeSink(EpisodeSink sink, int every, int below, int above)
+    {
+        this.sink = sink;
+        this.every = every;
+        this.below = below;
+        this.above = above;
+    }
+    
+    @Override
+    public void episodeEnded(int episode, int score, int actions, int outcome) throws IOException
+    {
+        if ((every > 0 && episode % every == 0) || score < below || score > above)
+        {
+            sink.episodeEnded(episode, score, actions, outcome);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        sink.close();
+    }
+}
@@ -1,18 +1,40 @@
 package wumpusworld;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 /**
  * This class handles an instance of the Wumpus World. It contains the world
  * state, which actions are available, and updates the world when an action
  * has been executed.
  * 
+ * The squares are stored as bitboards, one bit per square and one bit array
+ * per feature (pit, breeze, stench, Wumpus, glitter and visited). Square
+ * (x,y) is bit (x-1) + (y-1) * size.
+ * 
+ * The Wumpus squares are also kept in a list, together with the lowest
+ * and highest Wumpus position on every row and column, so that shooting
+ * and killing the Wumpus only touch the squares involved however large
+ * the world is.
+ * 
  * @author Johan Hagelbäck
  */
 public class World 
 {
     private int size;
-    private String[][] w;
+    private long[] pits;
+    private long[] breezes;
+    private long[] stenches;
+    private long[] wumpuses;
+    private long[] glitters;
+    private long[] visited;
+    private int[] visitLog;
+    private int visitCount = 0;
+    private int[] wumpusCells = new int[1];
+    private int wumpusCount = 0;
+    private int[] rowMinX;
+    private int[] rowMaxX;
+    private int[] colMinY;
+    private int[] colMaxY;
     private int pX = 1;
     private int pY = 1;
     private boolean wumpusAlive = true;
@@ -48,25 +70,44 @@ public class World
     public static final String A_TURN_LEFT = "l";
     public static final String A_TURN_RIGHT = "r";
     
+    //Square flag constants, returned by getCellFlags(int).
+    public static final int CELL_VISITED = 1;
+    public static final int CELL_PIT = 2;
+    public static final int CELL_BREEZE = 4;
+    public static final int CELL_STENCH = 8;
+    public static final int CELL_WUMPUS = 16;
+    public static final int CELL_GLITTER = 32;
+    
+    //Action code constants, used by doAction(int).
+    public static final int ACTION_MOVE = 0;
+    public static final int ACTION_SHOOT = 1;
+    public static final int ACTION_TURN_LEFT = 2;
+    public static final int ACTION_TURN_RIGHT = 3;
+    public static final int ACTION_GRAB = 4;
+    public static final int ACTION_CLIMB = 5;
+    public static final int ACTION_INVALID = -1;
+    
+    //Action strings indexed by action code.
+    private static final String[] ACTION_STRINGS = { A_MOVE, A_SHOOT, A_TURN_LEFT, A_TURN_RIGHT, A_GRAB, A_CLIMB };
+    
     /**
      * Creates a new Wumpus World. The Wumpus World works with
-     * any size 4 or larger, but only size 4 is supported by
-     * the GUI.
+     * any size 4 or larger.
      * 
      * @param size Size of the world.
      */
     public World(int size)
     {
         this.size = size;
-        w = new String[size+1][size+1];
         
-        for (int x = 0; x <= size; x++)
-        {
-            for (int y = 0; y <= size; y++)
-            {
-                w[x][y] = UNKNOWN;
-            }
-        }
+        int words = (size * size + 63) >>> 6;
+        pits = new long[words];
+        breezes = new long[words];
+        stenches = new long[words];
+        wumpuses = new long[words];
+        glitters = new long[words];
+        visited = new long[words];
+        visitLog = new int[Math.min(size * size, 64)];
         
         setVisited(1, 1);
     }
@@ -75,27 +116,98 @@ public class World
     public World clone()
     {
         World copy = new World(size);
+        copy.resetFrom(this);
+        return copy;
+    }
+    
+    /**
+     * Makes this world a copy of another world, such as the
+     * template of a WorldMap, by copying its arrays into the
+     * arrays of this world. Nothing is allocated unless the
+     * other world is larger. Snapshots of this world are no
+     * longer valid afterwards.
+     * 
+     * @param template World to copy
+     */
+    public void resetFrom(World template)
+    {
+        if (pits.length != template.pits.length)
+        {
+            int words = template.pits.length;
+            pits = new long[words];
+            breezes = new long[words];
+            stenches = new long[words];
+            wumpuses = new long[words];
+            glitters = new long[words];
+            visited = new long[words];
+        }
+        size = template.size;
         
-        copy.size = size;
+        if (pits.length == 1)
+        {
+            //Worlds up to 8x8 fit in one word.
+            pits[0] = template.pits[0];
+            breezes[0] = template.breezes[0];
+            stenches[0] = template.stenches[0];
+            wumpuses[0] = template.wumpuses[0];
+            glitters[0] = template.glitters[0];
+            visited[0] = template.visited[0];
+        }
+        else
+        {
+            System.arraycopy(template.pits, 0, pits, 0, pits.length);
+            System.arraycopy(template.breezes, 0, breezes, 0, breezes.length);
+            System.arraycopy(template.stenches, 0, stenches, 0, stenches.length);
+            System.arraycopy(template.wumpuses, 0, wumpuses, 0, wumpuses.length);
+            System.arraycopy(template.glitters, 0, glitters, 0, glitters.length);
+            System.arraycopy(template.visited, 0, visited, 0, visited.length);
+        }
         
-        for (int x = 0; x <= size; x++)
+        if (visitLog.length < template.visitCount)
         {
-            for (int y = 0; y <= size; y++)
+            visitLog = new int[template.visitLog.length];
+        }
+        System.arraycopy(template.visitLog, 0, visitLog, 0, template.visitCount);
+        visitCount = template.visitCount;
+        
+        if (wumpusCells.length < template.wumpusCount)
+        {
+            wumpusCells = new int[template.wumpusCells.length];
+        }
+        System.arraycopy(template.wumpusCells, 0, wumpusCells, 0, template.wumpusCount);
+        wumpusCount = template.wumpusCount;
+        
+        if (template.rowMinX == null)
+        {
+            rowMinX = null;
+            rowMaxX = null;
+            colMinY = null;
+            colMaxY = null;
+        }
+        else
+        {
+            if (rowMinX == null || rowMinX.length != template.rowMinX.length)
             {
-                copy.w[x][y] = "" + w[x][y];
+                rowMinX = new int[template.rowMinX.length];
+                rowMaxX = new int[template.rowMinX.length];
+                colMinY = new int[template.rowMinX.length];
+                colMaxY = new int[template.rowMinX.length];
             }
+            System.arraycopy(template.rowMinX, 0, rowMinX, 0, rowMinX.length);
+            System.arraycopy(template.rowMaxX, 0, rowMaxX, 0, rowMaxX.length);
+            System.arraycopy(template.colMinY, 0, colMinY, 0, colMinY.length);
+            System.arraycopy(template.colMaxY, 0, colMaxY, 0, colMaxY.length);
         }
         
-        copy.pX = pX;
-        copy.pY = pY;
-        copy.wumpusAlive = wumpusAlive;
-        copy.hasArrow = hasArrow;
-        copy.isInPit = isInPit;
-        copy.hasGold = hasGold;
-        copy.gameOver = gameOver;
-        copy.score = score;
-                
-        return copy;
+        dir = template.dir;
+        pX = template.pX;
+        pY = template.pY;
+        wumpusAlive = template.wumpusAlive;
+        hasArrow = template.hasArrow;
+        isInPit = template.isInPit;
+        hasGold = template.hasGold;
+        gameOver = template.gameOver;
+        score = template.score;
     }
     
     /**
@@ -213,10 +325,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(BREEZE))
-            return true;
-        else
-            return false;
+        return test(breezes, cell(x,y));
     }
     
     /**
@@ -233,10 +342,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(STENCH))
-            return true;
-        else
-            return false;
+        return test(stenches, cell(x,y));
     }
     
     /**
@@ -253,10 +359,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(GLITTER))
-            return true;
-        else
-            return false;
+        return test(glitters, cell(x,y));
     }
     
     /**
@@ -273,10 +376,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(PIT))
-            return true;
-        else
-            return false;
+        return test(pits, cell(x,y));
     }
     
     /**
@@ -293,10 +393,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(WUMPUS))
-            return true;
-        else
-            return false;
+        return test(wumpuses, cell(x,y));
     }
     
      /**
@@ -342,10 +439,7 @@ public class World
     {
         if (!isValidPosition(x,y)) return false;
         
-        if (w[x][y].contains(UNKNOWN))
-            return true;
-        else
-            return false;  
+        return !test(visited, cell(x,y));
     }
     
     /**
@@ -365,39 +459,171 @@ public class World
         return true;
     }
     
+    /**
+     * Returns the index of a square, (x-1) + (y-1) * size.
+     * The position must be valid.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return Index of the square
+     */
+    public int getCellIndex(int x, int y)
+    {
+        return cell(x,y);
+    }
+    
+    /**
+     * Returns the fingerprint of the squares that have pits,
+     * Wumpuses and gold in this world now. Before the world
+     * is played, it is the fingerprint of its map (see
+     * WorldMap.fingerprint()).
+     * 
+     * @return Fingerprint
+     */
+    public long fingerprint()
+    {
+        return WorldMap.fingerprint(size, pits, wumpuses, glitters);
+    }
+    
+    /**
+     * Returns everything in a square as a set of flags
+     * (see Square flag constants). Unlike hasPit() and the
+     * other checks, the contents of unknown squares are
+     * returned too, so check CELL_VISITED first.
+     * 
+     * @param c Index of the square (see getCellIndex)
+     * @return Square flags
+     */
+    public int getCellFlags(int c)
+    {
+        int word = c >>> 6;
+        long bit = 1L << c;
+        int flags = 0;
+        if ((visited[word] & bit) != 0) flags |= CELL_VISITED;
+        if ((pits[word] & bit) != 0) flags |= CELL_PIT;
+        if ((breezes[word] & bit) != 0) flags |= CELL_BREEZE;
+        if ((stenches[word] & bit) != 0) flags |= CELL_STENCH;
+        if ((wumpuses[word] & bit) != 0) flags |= CELL_WUMPUS;
+        if ((glitters[word] & bit) != 0) flags |= CELL_GLITTER;
+        return flags;
+    }
+    
+    /**
+     * Returns the bit index of a square. The position
+     * must be valid.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return Bit index of the square
+     */
+    private int cell(int x, int y)
+    {
+        return (x - 1) + (y - 1) * size;
+    }
+    
+    /**
+     * Checks if a bit is set in a bitboard.
+     * 
+     * @param b Bitboard
+     * @param i Bit index
+     * @return True if the bit is set
+     */
+    private static boolean test(long[] b, int i)
+    {
+        return (b[i >>> 6] & (1L << i)) != 0;
+    }
+    
+    /**
+     * Sets a bit in a bitboard.
+     * 
+     * @param b Bitboard
+     * @param i Bit index
+     */
+    private static void set(long[] b, int i)
+    {
+        b[i >>> 6] |= 1L << i;
+    }
+    
+    /**
+     * Clears a bit in a bitboard.
+     * 
+     * @param b Bitboard
+     * @param i Bit index
+     */
+    private static void clear(long[] b, int i)
+    {
+        b[i >>> 6] &= ~(1L << i);
+    }
+    
     /**
      * Adds a percept to a square.
      * 
      * @param x X position
      * @param y Y position
-     * @param s Percept to add (see Percept constants)
+     * @param b Bitboard of the percept to add
      */
-    private void append(int x, int y, String s)
+    private void append(int x, int y, long[] b)
     {
         if (!isValidPosition(x,y))
             return;
         
-        if (!w[x][y].contains(s))
-        {
-            w[x][y] += s;
-        }
+        set(b, cell(x,y));
+    }
+    
+    /**
+     * Removes a percept from a square.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @param b Bitboard of the percept to remove
+     */
+    private void remove(int x, int y, long[] b)
+    {
+        if (!isValidPosition(x,y))
+            return;
+        
+        clear(b, cell(x,y));
     }
     
     /**
-     * Adds the Wumpus to a square.
+     * Adds the Wumpus to a square. A world can have
+     * several, which are all killed by one arrow.
      * 
      * @param x X position
      * @param y Y position
      */
     public void addWumpus(int x, int y)
     {
-        if (!w[x][y].contains(WUMPUS))
+        if (!isValidPosition(x,y))
+            return;
+        
+        if (!test(wumpuses, cell(x,y)))
         {
-            append(x,y,WUMPUS);
-            append(x-1,y,STENCH);
-            append(x+1,y,STENCH);
-            append(x,y-1,STENCH);
-            append(x,y+1,STENCH);
+            if (wumpusCount == wumpusCells.length)
+            {
+                wumpusCells = Arrays.copyOf(wumpusCells, wumpusCount * 2);
+            }
+            wumpusCells[wumpusCount++] = cell(x,y);
+            
+            if (rowMinX == null)
+            {
+                rowMinX = new int[size + 1];
+                rowMaxX = new int[size + 1];
+                colMinY = new int[size + 1];
+                colMaxY = new int[size + 1];
+                Arrays.fill(rowMinX, Integer.MAX_VALUE);
+                Arrays.fill(colMinY, Integer.MAX_VALUE);
+            }
+            rowMinX[y] = Math.min(rowMinX[y], x);
+            rowMaxX[y] = Math.max(rowMaxX[y], x);
+            colMinY[x] = Math.min(colMinY[x], y);
+            colMaxY[x] = Math.max(colMaxY[x], y);
+            
+            append(x,y,wumpuses);
+            append(x-1,y,stenches);
+            append(x+1,y,stenches);
+            append(x,y-1,stenches);
+            append(x,y+1,stenches);
         }
     }
     
@@ -409,13 +635,16 @@ public class World
      */
     public void addPit(int x, int y)
     {
-        if (!w[x][y].contains(PIT))
+        if (!isValidPosition(x,y))
+            return;
+        
+        if (!test(pits, cell(x,y)))
         {
-            append(x,y,PIT);
-            append(x-1,y,BREEZE);
-            append(x+1,y,BREEZE);
-            append(x,y-1,BREEZE);
-            append(x,y+1,BREEZE);
+            append(x,y,pits);
+            append(x-1,y,breezes);
+            append(x+1,y,breezes);
+            append(x,y-1,breezes);
+            append(x,y+1,breezes);
         }
     }
     
@@ -427,10 +656,7 @@ public class World
      */
     public void addGold(int x, int y)
     {
-        if (!w[x][y].contains(GLITTER))
-        {
-            append(x,y,GLITTER);
-        }
+        append(x,y,glitters);
     }
     
     /**
@@ -441,12 +667,52 @@ public class World
      */
     private void setVisited(int x, int y)
     {
-        if (w[x][y].contains(UNKNOWN))
+        int c = cell(x,y);
+        if (test(visited, c)) return;
+        
+        set(visited, c);
+        if (visitCount == visitLog.length)
+        {
+            visitLog = Arrays.copyOf(visitLog, Math.min(visitCount * 2, size * size));
+        }
+        visitLog[visitCount++] = c;
+    }
+    
+    /**
+     * Returns the action code for an action string.
+     * 
+     * @param a Action string (see Action constants)
+     * @return Action code, or ACTION_INVALID if the string is not an action
+     */
+    public static int getActionCode(String a)
+    {
+        if (a.length() != 1) return ACTION_INVALID;
+        
+        switch (a.charAt(0))
         {
-            w[x][y] = w[x][y].replaceAll(UNKNOWN, "");
+            case 'm': return ACTION_MOVE;
+            case 's': return ACTION_SHOOT;
+            case 'l': return ACTION_TURN_LEFT;
+            case 'r': return ACTION_TURN_RIGHT;
+            case 'g': return ACTION_GRAB;
+            case 'c': return ACTION_CLIMB;
+            default: return ACTION_INVALID;
         }
     }
     
+    /**
+     * Returns the action string for an action code.
+     * 
+     * @param action Action code (see Action code constants)
+     * @return Action string, or empty string if the code is not an action
+     */
+    public static String getActionString(int action)
+    {
+        if (action < 0 || action >= ACTION_STRINGS.length) return "";
+        
+        return ACTION_STRINGS[action];
+    }
+    
     /**
      * Executes an action in the Wumpus World.
      * 
@@ -454,58 +720,64 @@ public class World
      * @return True if the action was successful, false if action failed.
      */
     public boolean doAction(String a)
+    {
+        return doAction(getActionCode(a));
+    }
+    
+    /**
+     * Executes an action in the Wumpus World.
+     * 
+     * @param action Action code (see Action code constants)
+     * @return True if the action was successful, false if action failed.
+     */
+    public boolean doAction(int action)
     {
         if (gameOver) return false;
         
         //Each action costs 1 score
         score -= 1;
         
-        if (a.equals(A_MOVE))
+        switch (action)
         {
-            if (!isInPit)
-            {
-                if (dir == DIR_LEFT) return move(pX-1,pY);
-                if (dir == DIR_RIGHT) return move(pX+1,pY);
-                if (dir == DIR_UP) return move(pX,pY+1);
-                if (dir == DIR_DOWN) return move(pX,pY-1);
-            }
-        }
-        if (a.equals(A_TURN_LEFT))
-        {
-            dir--;
-            if (dir < 0) dir = 3;
-            return true;
-        }
-        if (a.equals(A_TURN_RIGHT))
-        {
-            dir++;
-            if (dir > 3) dir = 0;
-            return true;
-        }
-        if (a.equals(A_GRAB))
-        {
-            if (hasGlitter(pX,pY))
-            {
-                w[pX][pY] = w[pX][pY].replaceAll(GLITTER, "");
-                score += 1000;
-                hasGold = true;
-                gameOver = true;
+            case ACTION_MOVE:
+                if (!isInPit)
+                {
+                    if (dir == DIR_LEFT) return move(pX-1,pY);
+                    if (dir == DIR_RIGHT) return move(pX+1,pY);
+                    if (dir == DIR_UP) return move(pX,pY+1);
+                    if (dir == DIR_DOWN) return move(pX,pY-1);
+                }
+                break;
+            case ACTION_TURN_LEFT:
+                dir--;
+                if (dir < 0) dir = 3;
                 return true;
-            }
-        }
-        if (a.equals(A_SHOOT))
-        {
-            if (hasArrow)
-            {
-                score -= 10;
-                hasArrow = false;
-                shoot();
+            case ACTION_TURN_RIGHT:
+                dir++;
+                if (dir > 3) dir = 0;
                 return true;
-            }
-        }
-        if (a.equals(A_CLIMB))
-        {
-            isInPit = false;
+            case ACTION_GRAB:
+                if (hasGlitter(pX,pY))
+                {
+                    clear(glitters, cell(pX,pY));
+                    score += 1000;
+                    hasGold = true;
+                    gameOver = true;
+                    return true;
+                }
+                break;
+            case ACTION_SHOOT:
+                if (hasArrow)
+                {
+                    score -= 10;
+                    hasArrow = false;
+                    shoot();
+                    return true;
+                }
+                break;
+            case ACTION_CLIMB:
+                isInPit = false;
+                break;
         }
         
         //Action failed
@@ -513,38 +785,22 @@ public class World
     }
     
     /**
-     * Checks if the Wumpus has been hit by the arrow.
+     * Checks if the Wumpus has been hit by the arrow. The
+     * arrow flies from the player's square to the edge of
+     * the world, so it hits if the Wumpus furthest along
+     * that row or column is not behind the player.
      */
     private void shoot()
     {
-        if (dir == DIR_RIGHT)
-        {
-            for (int x = pX; x <= size; x++)
-            {
-                if (w[x][pY].contains(WUMPUS)) removeWumpus();
-            }
-        }
-        if (dir == DIR_LEFT)
-        {
-            for (int x = pX; x >= 0; x--)
-            {
-                if (w[x][pY].contains(WUMPUS)) removeWumpus();
-            }
-        }
-        if (dir == DIR_UP)
-        {
-            for (int y = pY; y <= size; y++)
-            {
-                if (w[pX][y].contains(WUMPUS)) removeWumpus();
-            }
-        }
-        if (dir == DIR_DOWN)
-        {
-            for (int y = pY; y >= 0; y--)
-            {
-                if (w[pX][y].contains(WUMPUS)) removeWumpus();
-            }
-        }
+        if (!wumpusAlive || wumpusCount == 0) return;
+        
+        boolean hit = false;
+        if (dir == DIR_RIGHT) hit = rowMaxX[pY] >= pX;
+        if (dir == DIR_LEFT) hit = rowMinX[pY] <= pX;
+        if (dir == DIR_UP) hit = colMaxY[pX] >= pY;
+        if (dir == DIR_DOWN) hit = colMinY[pX] <= pY;
+        
+        if (hit) removeWumpus();
     }
     
     /**
@@ -553,13 +809,16 @@ public class World
      */
     private void removeWumpus()
     {
-        for (int x = 1; x <= 4; x++)
+        for (int i = 0; i < wumpusCount; i++)
         {
-            for (int y = 1; y <= 4; y++)
-            {
-                w[x][y] = w[x][y].replaceAll(WUMPUS, "");
-                w[x][y] = w[x][y].replaceAll(STENCH, "");
-            }
+            int c = wumpusCells[i];
+            int x = c % size + 1;
+            int y = c / size + 1;
+            remove(x,y,wumpuses);
+            remove(x-1,y,stenches);
+            remove(x+1,y,stenches);
+            remove(x,y-1,stenches);
+            remove(x,y+1,stenches);
         }
         
         wumpusAlive = false;
@@ -598,4 +857,227 @@ public class World
         
         return true;    
     }
+    
+    /**
+     * Creates a new snapshot of the current world state. The snapshot
+     * can be captured again later to reuse it without allocating.
+     * 
+     * @return Snapshot of the current state
+     */
+    public Snapshot newSnapshot()
+    {
+        Snapshot s = new Snapshot();
+        s.capture();
+        return s;
+    }
+    
+    /**
+     * A snapshot of the scalar state of a World (player position,
+     * direction, arrow, Wumpus, pit, gold and score) together with a
+     * mark in the journal of visited squares. Since the map itself
+     * only changes when squares are visited, the gold is grabbed or
+     * the Wumpus is killed, this is enough to answer queries about
+     * the earlier state and to restore it.
+     */
+    public class Snapshot
+    {
+        private int pX;
+        private int pY;
+        private int dir;
+        private int score;
+        private int visitMark;
+        private boolean wumpusAlive;
+        private boolean hasArrow;
+        private boolean isInPit;
+        private boolean hasGold;
+        private boolean gameOver;
+        
+        /**
+         * Captures the current state of the world into this snapshot.
+         */
+        public void capture()
+        {
+            pX = World.this.pX;
+            pY = World.this.pY;
+            dir = World.this.dir;
+            score = World.this.score;
+            visitMark = World.this.visitCount;
+            wumpusAlive = World.this.wumpusAlive;
+            hasArrow = World.this.hasArrow;
+            isInPit = World.this.isInPit;
+            hasGold = World.this.hasGold;
+            gameOver = World.this.gameOver;
+        }
+        
+        /**
+         * Restores the world to the state captured in this snapshot.
+         * Only valid if the world has not been restored to an earlier
+         * state since the capture.
+         */
+        public void restore()
+        {
+            while (visitCount > visitMark)
+            {
+                clear(visited, visitLog[--visitCount]);
+            }
+            
+            if (hasGold != World.this.hasGold)
+            {
+                set(glitters, cell(World.this.pX, World.this.pY));
+            }
+            if (wumpusAlive != World.this.wumpusAlive)
+            {
+                for (int i = 0; i < wumpusCount; i++)
+                {
+                    int c = wumpusCells[i];
+                    int x = c % size + 1;
+                    int y = c / size + 1;
+                    append(x,y,wumpuses);
+                    append(x-1,y,stenches);
+                    append(x+1,y,stenches);
+                    append(x,y-1,stenches);
+                    append(x,y+1,stenches);
+                }
+            }
+            
+            World.this.pX = pX;
+            World.this.pY = pY;
+            World.this.dir = dir;
+            World.this.score = score;
+            World.this.wumpusAlive = wumpusAlive;
+            World.this.hasArrow = hasArrow;
+            World.this.isInPit = isInPit;
+            World.this.hasGold = hasGold;
+            World.this.gameOver = gameOver;
+        }
+        
+        /**
+         * Returns the player X position at capture time.
+         * 
+         * @return X position.
+         */
+        public int getPlayerX()
+        {
+            return pX;
+        }
+        
+        /**
+         * Returns the player Y position at capture time.
+         * 
+         * @return Y position.
+         */
+        public int getPlayerY()
+        {
+            return pY;
+        }
+        
+        /**
+         * Returns the direction of the player at capture time.
+         * 
+         * @return Direction (see direction constants)
+         */
+        public int getDirection()
+        {
+            return dir;
+        }
+        
+        /**
+         * Returns the score at capture time.
+         * 
+         * @return The score.
+         */
+        public int getScore()
+        {
+            return score;
+        }
+        
+        /**
+         * Checks if the Wumpus was alive at capture time.
+         * 
+         * @return True if Wumpus was alive, false otherwise.
+         */
+        public boolean wumpusAlive()
+        {
+            return wumpusAlive;
+        }
+        
+        /**
+         * Checks if the player had the arrow at capture time.
+         * 
+         * @return True if player had the arrow, false otherwise.
+         */
+        public boolean hasArrow()
+        {
+            return hasArrow;
+        }
+        
+        /**
+         * Checks if the player was in a pit at capture time.
+         * 
+         * @return True if in a pit, false otherwise.
+         */
+        public boolean isInPit()
+        {
+            return isInPit;
+        }
+        
+        /**
+         * Checks if the player carried the gold at capture time.
+         * 
+         * @return True if player had the gold, false otherwise.
+         */
+        public boolean hasGold()
+        {
+            return hasGold;
+        }
+        
+        /**
+         * Checks if the game had ended at capture time.
+         * 
+         * @return True if game was over, false if not.
+         */
+        public boolean gameOver()
+        {
+            return gameOver;
+        }
+        
+        /**
+         * Checks if a square was unknown at capture time. Returns
+         * false if the position is invalid.
+         * 
+         * @param x X position
+         * @param y Y position
+         * @return True if the square was unknown
+         */
+        public boolean isUnknown(int x, int y)
+        {
+            if (!isValidPosition(x,y)) return false;
+            
+            int c = cell(x,y);
+            if (!test(visited, c)) return true;
+            
+            for (int i = visitMark; i < visitCount; i++)
+            {
+                if (visitLog[i] == c) return true;
+            }
+            return false;
+        }
+        
+        /**
+         * Checks if a square had a pit at capture time. Returns
+         * false if the position is invalid, or if the square was
+         * unknown.
+         * 
+         * @param x X position
+         * @param y Y position
+         * @return True if the square had a pit
+         */
+        public boolean hasPit(int x, int y)
+        {
+            if (!isValidPosition(x,y)) return false;
+            if (isUnknown(x,y)) return false;
+            
+            return test(pits, cell(x,y));
+        }
+    }
 }
@@ -1,20 +1,37 @@
 package wumpusworld;
 
-import java.util.Vector;
-import java.awt.Point;
+import java.util.Arrays;
 
 /**
  * This class represents a Wumpus World map read
  * from the file.
  * 
+ * Squares are stored as indices (x-1) + (y-1) * size,
+ * as in World. The pits are a bit set with one bit per
+ * square, and the Wumpuses and gold treasures are small
+ * arrays of square indices, so a 4x4 map takes a few
+ * dozen bytes.
+ * 
+ * The initial world of a map is built once when it is
+ * first needed as a template, and worlds for the map are
+ * then copied from it (see WorldPool) rather than built
+ * hazard by hazard.
+ * 
  * @author Johan Hagelbäck
  */
 public class WorldMap
 {
+    private static final int[] NONE = new int[0];
+    
     private int size;
-    private Point wumpus;
-    private Point gold;
-    private Vector<Point> pits;
+    private int[] wumpuses = NONE;
+    private int wumpusCount;
+    private int[] golds = NONE;
+    private int goldCount;
+    private long[] pits;
+    private int pitCount;
+    //Initial world, never changed once built.
+    private volatile World template;
     
     /**
      * Creates a new map instance.
@@ -24,40 +41,54 @@ public class WorldMap
     public WorldMap(int size)
     {
         this.size = size;
-        pits = new Vector<Point>();
+        pits = new long[(size * size + 63) >>> 6];
     }
     
     /**
-     * Adds the Wumpus.
+     * Adds the Wumpus. Large maps can have several.
+     * Positions outside the map are ignored.
      * 
      * @param x X position
      * @param y Y position
      */
     public void addWumpus(int x, int y)
     {
-        wumpus = new Point(x,y);
+        if (!isValidPosition(x,y)) return;
+        
+        wumpuses = append(wumpuses, wumpusCount++, cell(x,y));
+        template = null;
     }
     
     /**
-     * Adds the gold treasure.
+     * Adds the gold treasure. Large maps can have several.
+     * Positions outside the map are ignored.
      * 
      * @param x X position
      * @param y Y position
      */
     public void addGold(int x, int y)
     {
-        gold = new Point(x,y);
+        if (!isValidPosition(x,y)) return;
+        
+        golds = append(golds, goldCount++, cell(x,y));
+        template = null;
     }
     
     /**
      * Adds a pit. The map can have any number of pits.
+     * Positions outside the map are ignored.
      * 
      * @param x X position
      * @param y Y position
      */
     public void addPit(int x, int y)
     {
-        pits.add(new Point(x,y));
+        if (!isValidPosition(x,y) || hasPit(x,y)) return;
+        
+        int c = cell(x,y);
+        pits[c >>> 6] |= 1L << c;
+        pitCount++;
+        template = null;
     }
     
     /**
@@ -71,33 +102,100 @@ public class WorldMap
     }
     
     /**
-     * Returns position for the Wumpus.
+     * Returns the number of Wumpuses.
+     * 
+     * @return Number of Wumpuses
+     */
+    public int getWumpusCount()
+    {
+        return wumpusCount;
+    }
+    
+    /**
+     * Returns the X position of a Wumpus.
+     * 
+     * @param i Index of the Wumpus, from 0
+     * @return X position
+     */
+    public int getWumpusX(int i)
+    {
+        return wumpuses[i] % size + 1;
+    }
+    
+    /**
+     * Returns the Y position of a Wumpus.
+     * 
+     * @param i Index of the Wumpus, from 0
+     * @return Y position
+     */
+    public int getWumpusY(int i)
+    {
+        return wumpuses[i] / size + 1;
+    }
+    
+    /**
+     * Returns the number of gold treasures.
      * 
-     * @return The position 
+     * @return Number of gold treasures
      */
-    public Point getWumpus()
+    public int getGoldCount()
     {
-        return wumpus;
+        return goldCount;
     }
     
     /**
-     * Returns position for the gold treasure.
+     * Returns the X position of a gold treasure.
      * 
-     * @return The position 
+     * @param i Index of the gold treasure, from 0
+     * @return X position
      */
-    public Point getGold()
+    public int getGoldX(int i)
     {
-        return gold;
+        return golds[i] % size + 1;
     }
     
     /**
-     * Returns positions for all pits.
+     * Returns the Y position of a gold treasure.
      * 
-     * @return A list of positions for pits
+     * @param i Index of the gold treasure, from 0
+     * @return Y position
      */
-    public Vector<Point> getPits()
+    public int getGoldY(int i)
     {
-        return pits;
+        return golds[i] / size + 1;
+    }
+    
+    /**
+     * Returns the number of pits.
+     * 
+     * @return Number of pits
+     */
+    public int getPitCount()
+    {
+        return pitCount;
+    }
+    
+    /**
+     * Returns the first square with a pit at or after a
+     * square, in index order. Loop over all pits with
+     * for (int c = nextPit(0); c >= 0; c = nextPit(c + 1)).
+     * 
+     * @param from Square index (x-1) + (y-1) * size
+     * @return Square index of the pit, or -1 if there is none
+     */
+    public int nextPit(int from)
+    {
+        int cells = size * size;
+        if (from >= cells) return -1;
+        
+        int word = from >>> 6;
+        long bits = pits[word] & (-1L << from);
+        while (bits == 0)
+        {
+            if (++word == pits.length) return -1;
+            bits = pits[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
     }
     
     /**
@@ -109,14 +207,63 @@ public class WorldMap
      */
     public boolean hasPit(int x, int y)
     {
-        for (Point p:pits)
-        {
-            if (p.x == x && p.y == y)
-            {
-                return true;
-            }
-        }
-        return false;
+        if (!isValidPosition(x,y)) return false;
+        
+        int c = cell(x,y);
+        return (pits[c >>> 6] & (1L << c)) != 0;
+    }
+    
+    /**
+     * Returns a 64-bit fingerprint of this map: a hash of its
+     * size and of the squares with pits, Wumpuses and gold.
+     * Maps with the same hazards get the same fingerprint,
+     * whatever order the hazards were added in, and so does
+     * a world created from the map before it is played (see
+     * World.fingerprint()).
+     * 
+     * @return Fingerprint
+     */
+    public long fingerprint()
+    {
+        return fingerprint(size, pits, toBits(wumpuses, wumpusCount), toBits(golds, goldCount));
+    }
+    
+    /**
+     * Returns a fingerprint that is the same for this map and
+     * for its mirror image in the diagonal through the start
+     * square: the smaller of their fingerprints. It tells
+     * which maps have the same layout, but the player starts
+     * facing right in both, so a map and its mirror image are
+     * not played the same way. Results of playing a map are
+     * kept by fingerprint().
+     * 
+     * @return Symmetry-reduced fingerprint
+     */
+    public long canonicalFingerprint()
+    {
+        long[] w = toBits(wumpuses, wumpusCount);
+        long[] g = toBits(golds, goldCount);
+        long mirrored = fingerprint(size, transpose(pits), transpose(w), transpose(g));
+        return Math.min(fingerprint(size, pits, w, g), mirrored);
+    }
+    
+    /**
+     * Returns the fingerprint of a map given as bit sets with
+     * one bit per square.
+     * 
+     * @param size Size of the map
+     * @param pits Squares with pits
+     * @param wumpuses Squares with Wumpuses
+     * @param golds Squares with gold
+     * @return Fingerprint
+     */
+    static long fingerprint(int size, long[] pits, long[] wumpuses, long[] golds)
+    {
+        long h = mix(size);
+        h = hash(h, pits);
+        h = hash(h, wumpuses);
+        h = hash(h, golds);
+        return h;
     }
     
     /**
@@ -125,14 +272,165 @@ public class WorldMap
      * @return Wumpus World instance
      */
     public World generateWorld()
+    {
+        World t = template;
+        if (t != null)
+        {
+            return t.clone();
+        }
+        return buildWorld();
+    }
+    
+    /**
+     * Returns the initial world of this map, building it
+     * the first time. The template is shared and must not
+     * be changed; copy it with World.resetFrom().
+     * 
+     * @return Initial world
+     */
+    World getTemplate()
+    {
+        World t = template;
+        if (t == null)
+        {
+            //Threads that race here build equal templates.
+            t = buildWorld();
+            template = t;
+        }
+        return t;
+    }
+    
+    /**
+     * Builds the initial world of this map hazard by hazard.
+     * 
+     * @return Wumpus World instance
+     */
+    private World buildWorld()
     {
         World w = new World(size);
-        w.addWumpus(wumpus.x, wumpus.y);
-        w.addGold(gold.x, gold.y);
-        for (int i = 0; i < pits.size(); i++)
+        for (int i = 0; i < wumpusCount; i++)
+        {
+            w.addWumpus(getWumpusX(i), getWumpusY(i));
+        }
+        for (int i = 0; i < goldCount; i++)
         {
-            w.addPit(pits.get(i).x, pits.get(i).y);
+            w.addGold(getGoldX(i), getGoldY(i));
+        }
+        for (int c = nextPit(0); c >= 0; c = nextPit(c + 1))
+        {
+            w.addPit(c % size + 1, c / size + 1);
         }
         return w;
     }
+    
+    /**
+     * Checks if a position is inside the map.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return True if the position is valid
+     */
+    private boolean isValidPosition(int x, int y)
+    {
+        return x >= 1 && y >= 1 && x <= size && y <= size;
+    }
+    
+    /**
+     * Returns the index of a square.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return Index of the square
+     */
+    private int cell(int x, int y)
+    {
+        return (x - 1) + (y - 1) * size;
+    }
+    
+    /**
+     * Returns a bit set of squares.
+     * 
+     * @param cells Array of squares
+     * @param count Number of squares in the array
+     * @return Bit set with one bit per square
+     */
+    private long[] toBits(int[] cells, int count)
+    {
+        long[] bits = new long[pits.length];
+        for (int i = 0; i < count; i++)
+        {
+            bits[cells[i] >>> 6] |= 1L << cells[i];
+        }
+        return bits;
+    }
+    
+    /**
+     * Mirrors a bit set of squares in the diagonal through
+     * the start square, so that square x,y becomes y,x.
+     * 
+     * @param bits Bit set with one bit per square
+     * @return Mirrored bit set
+     */
+    private long[] transpose(long[] bits)
+    {
+        long[] mirrored = new long[bits.length];
+        for (int i = 0; i < bits.length; i++)
+        {
+            for (long word = bits[i]; word != 0; word &= word - 1)
+            {
+                int c = i * 64 + Long.numberOfTrailingZeros(word);
+                int t = c / size + c % size * size;
+                mirrored[t >>> 6] |= 1L << t;
+            }
+        }
+        return mirrored;
+    }
+    
+    /**
+     * Adds the words of a bit set to a hash.
+     * 
+     * @param h Hash so far
+     * @param words Bit set
+     * @return New hash
+     */
+    private static long hash(long h, long[] words)
+    {
+        for (int i = 0; i < words.length; i++)
+        {
+            h = mix(h ^ words[i]);
+        }
+        return mix(h + 0x9e3779b97f4a7c15L);
+    }
+    
+    /**
+     * Scrambles the bits of a value (the SplitMix64 finalizer).
+     * 
+     * @param z Value
+     * @return Scrambled value
+     */
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Adds a square to an array of squares, growing it
+     * if it is full.
+     * 
+     * @param cells Array of squares
+     * @param count Number of squares in the array
+     * @param c Square to add
+     * @return Array of squares
+     */
+    private static int[] append(int[] cells, int count, int c)
+    {
+        if (count == cells.length)
+        {
+            cells = Arrays.copyOf(cells, Math.max(1, count * 2));
+        }
+        cells[count] = c;
+        return cells;
+    }
 }
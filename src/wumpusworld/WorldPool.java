@@ -0,0 +1,39 @@
+package wumpusworld;
+
+/**
+ * Hands out reusable worlds, one per thread, so that
+ * starting an episode on a map that has been played
+ * before copies the map's template into an existing
+ * world instead of allocating a new one.
+ * 
+ * A world from the pool is reset when the same thread
+ * gets its next world from the pool, so it must not be
+ * used after that. This suits simulations, where a
+ * thread plays one episode at a time.
+ */
+public class WorldPool
+{
+    private ThreadLocal<World> worlds = new ThreadLocal<World>();
+    
+    /**
+     * Returns this thread's world, reset to the initial
+     * world of a map.
+     * 
+     * @param map Wumpus World map
+     * @return Wumpus World instance
+     */
+    public World getWorld(WorldMap map)
+    {
+        World w = worlds.get();
+        if (w == null)
+        {
+            w = map.getTemplate().clone();
+            worlds.set(w);
+        }
+        else
+        {
+            w.resetFrom(map.getTemplate());
+        }
+        return w;
+    }
+}
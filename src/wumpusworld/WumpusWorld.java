@@ -1,14 +1,32 @@
 package wumpusworld;
 
-import java.util.HashMap;
-import java.util.Vector;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import qlearning.BoundedQTable;
+import qlearning.ConcurrentQTable;
+import qlearning.FrozenPolicy;
+import qlearning.OpenAddressingQTable;
+import qlearning.QJournal;
 import qlearning.QLearningAgent;
+import qlearning.QTable;
+import qlearning.QTableFile;
+import qlearning.QuantizedQTable;
+import qlearning.StateEncoder;
 /**
  * Starting class for the Wumpus World program. The program
  * has three options: 1) Run a GUI where the Wumpus World can be
  * solved step by step manually or by an agent, or 2) run
  * a simulation with random worlds over a number of games,
- * or 3) run a simulation over the worlds read from a map file.
+ * 3) run a simulation over the worlds read from a map file, or
+ * 4) evaluate the learned Q-table on every possible random world,
+ * 5) report how much symmetry reduction shrinks the Q-table,
+ * 6) compare the Q-table with copies of lower precision, or
+ * 7) generate a corpus of random maps that sim and eval can
+ * be set to play instead.
+ * The simulations run in parallel if more than one thread is
+ * set in the config file.
  * 
  * @author Johan Hagelbäck
  */
@@ -42,6 +60,22 @@ public class WumpusWorld {
         {
             runSimulatorDB();
         }
+        if (option.equalsIgnoreCase("eval"))
+        {
+            runEvaluation();
+        }
+        if (option.equalsIgnoreCase("symreport"))
+        {
+            runSymmetryReport();
+        }
+        if (option.equalsIgnoreCase("qcompare"))
+        {
+            runPrecisionComparison();
+        }
+        if (option.equalsIgnoreCase("corpus"))
+        {
+            runCorpusGenerator();
+        }
     }
     
     /**
@@ -54,65 +88,620 @@ public class WumpusWorld {
     
     private static final int COUNT = 100000;
     private static final int ACTION_LIMIT = 1000;
+    //Map files with more maps are not read into memory by simdb.
+    private static final int MAX_MAPS_IN_MEMORY = 65536;
     
     /**
      * Starts the program in simulator mode with
-     * maps read from a data file.
+     * maps read from a data file. Each map is played
+     * an equal number of times, and at least once.
+     * Small map files are read into memory, larger
+     * files are read one map per episode through
+     * the file's index.
      */
     private void runSimulatorDB()
     {
-        HashMap<QLearningAgent.State, double[]> Q = QLearningAgent.readQMatrix();
+        File file = new File(Config.getMapfile());
+        final MapIndex index;
+        try
+        {
+            index = MapIndex.open(file);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read map file " + file + ": " + ex.getMessage());
+            return;
+        }
+        final int n = index.getMapCount();
+        if (index.getMalformedCount() > 0)
+        {
+            System.err.println("Skipping " + index.getMalformedCount() + " malformed maps in " + file);
+        }
+        if (n == 0)
+        {
+            System.err.println("No maps in " + file);
+            index.close();
+            return;
+        }
+        final int C = Math.max(1, COUNT / n);
         
-        MapReader mr = new MapReader();
-        Vector<WorldMap> maps = mr.readMaps();
-        final int C = COUNT / maps.size();
+        EpisodeSource source = index;
+        if (n <= MAX_MAPS_IN_MEMORY)
+        {
+            final ArrayList<WorldMap> maps = new ArrayList<WorldMap>(n);
+            try
+            {
+                for (int i = 0; i < n; i++)
+                {
+                    maps.add(index.getMap(i));
+                }
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed to read map file " + file + ": " + ex.getMessage());
+                index.close();
+                return;
+            }
+            HashSet<Long> layouts = new HashSet<Long>();
+            HashSet<Long> mirrored = new HashSet<Long>();
+            for (WorldMap map : maps)
+            {
+                layouts.add(map.fingerprint());
+                mirrored.add(map.canonicalFingerprint());
+            }
+            System.out.println("Maps: " + n + ", distinct " + layouts.size() + ", distinct up to mirroring " + mirrored.size());
+            
+            //The same maps are played over and over, so copy them into reused worlds.
+            final WorldPool pool = new WorldPool();
+            source = new EpisodeSource()
+            {
+                public World createWorld(int episode)
+                {
+                    return pool.getWorld(maps.get(episode % n));
+                }
+            };
+        }
         
-        double totScore = 0;
-        for (int k = 0; k < C; k++)
+        runSimulator(source, C * n);
+        index.close();
+    }
+    
+    /**
+     * Starts the program in simulator mode
+     * with random maps of the size set in the
+     * config file, or with the maps of the map
+     * corpus or the map file if set in the config
+     * file.
+     */
+    private void runSimulator()
+    {
+        if (Config.getMapSource().equals("mapfile"))
+        {
+            runSimulatorDB();
+            return;
+        }
+        if (Config.getMapSource().equals("corpus"))
         {
-            for (int i = 0; i < maps.size(); i++)
+            MapCorpus corpus = openMapCorpus();
+            if (corpus != null) runSimulator(corpus, COUNT);
+            return;
+        }
+        
+        final int size = Config.getWorldSize();
+        runSimulator(new EpisodeSource()
+        {
+            public World createWorld(int episode)
             {
-                World w = maps.get(i).generateWorld();
-                totScore += (double)runSimulation(k * maps.size() + i, w, Q);
+                return MapGenerator.getRandomMap(episode, size).generateWorld();
             }
+        }, COUNT);
+    }
+    
+    /**
+     * Runs a simulation over a number of episodes, on
+     * several threads if set in the config file. Changes
+     * to the Q-matrix are logged while the simulation runs,
+     * and the whole matrix is saved at the end.
+     * 
+     * A single-threaded simulation can keep the Q-matrix
+     * within a number of rows set in the config file. Its
+     * changes are then only saved at the end, since the log
+     * only sees the rows in memory.
+     * 
+     * @param source Creates the world for each episode
+     * @param count Number of episodes
+     */
+    private void runSimulator(EpisodeSource source, int count)
+    {
+        QTable Q = QLearningAgent.readQMatrix();
+        
+        int threads = Config.getThreads();
+        String sharing = Config.getQSharing();
+        if (threads > 1 && sharing.equals(ParallelSimulator.SHARE_HOGWILD))
+        {
+            //The workers learn in this table, so log it rather than a copy.
+            Q = new ConcurrentQTable(Q);
+        }
+        BoundedQTable bounded = null;
+        int capacity = Config.getInt("QCapacity", 0);
+        if (threads == 1 && capacity > 0)
+        {
+            bounded = createBoundedQTable(Q, capacity);
+            if (bounded != null) Q = bounded;
         }
-        totScore = totScore / ((double)maps.size() * C);
-        System.out.println("Average score: " + totScore);
+        else if (capacity > 0)
+        {
+            System.err.println("QCapacity only applies with Threads=1, keeping the whole Q-Matrix in memory");
+        }
+        QJournal journal = null;
+        if (bounded == null)
+        {
+            journal = QLearningAgent.openQJournal(Q, Config.getInt("QFlushInterval", 10000));
+        }
+        AsyncEpisodeSink sink = createEpisodeSink();
+        OracleCache oracle = openOracleCache();
         
-        QLearningAgent.writeQMatrix(Q);
+        RunStatistics stats;
+        if (threads > 1)
+        {
+            ParallelSimulator ps = new ParallelSimulator(threads, sharing, ACTION_LIMIT);
+            ps.setJournal(journal);
+            ps.setSink(sink);
+            ps.setOracle(oracle);
+            stats = ps.run(Q, source, count);
+            Q = ps.getQTable();
+        }
+        else
+        {
+            stats = new RunStatistics(ACTION_LIMIT);
+            for (int i = 0; i < count; i++)
+            {
+                runSimulation(i, source.createWorld(i), Q, sink, oracle, stats);
+                
+                try
+                {
+                    if (journal != null) journal.flushIfDue();
+                }
+                catch (IOException ex)
+                {
+                    System.err.println("Failed to write Q-Matrix log");
+                }
+            }
+        }
+        sink.close();
+        saveOracleCache(oracle);
+        System.out.print(stats.getReport());
+        System.out.println("Average score: " + stats.getMean());
+        
+        try
+        {
+            if (journal != null) journal.close();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to write Q-Matrix log");
+        }
+        
+        if (bounded != null)
+        {
+            System.out.println(bounded.getMetrics());
+            try
+            {
+                QLearningAgent.writeQMatrix(bounded.getAllRows());
+                bounded.close();
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed to read Q-Matrix spill file");
+            }
+        }
+        else
+        {
+            QLearningAgent.writeQMatrix(Q);
+        }
     }
     
+    /**
+     * Creates a Q-table with at most a number of rows, that
+     * spills evicted rows to disk if set in the config file.
+     * Evicted rows are always spilled when Q is not empty,
+     * since the table is saved over the Q-matrix file at the
+     * end, and dropping them would lose trained rows.
+     * 
+     * @param Q Q-table to copy the rows from
+     * @param capacity Max number of rows in memory
+     * @return Bounded Q-table, or null if the spill file could not be created
+     */
+    private BoundedQTable createBoundedQTable(QTable Q, int capacity)
+    {
+        File spill = null;
+        boolean spilling = Config.getValue("QSpill", "false").equalsIgnoreCase("true");
+        if (!spilling && Q.size() > 0)
+        {
+            System.out.println("Spilling evicted Q-Matrix rows, since the Q-Matrix file is not empty");
+            spilling = true;
+        }
+        if (spilling)
+        {
+            spill = new File(QLearningAgent.getQFilePath(QLearningAgent.getSymmetry()) + ".spill");
+        }
+        
+        try
+        {
+            return new BoundedQTable(Q, capacity, spill);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to create Q-Matrix spill file " + spill);
+            return null;
+        }
+    }
     
+    /**
+     * Evaluates the Q-matrix on every map the random map
+     * generator can create, once each, or on every map of
+     * the map corpus or the map file if set in the config
+     * file. The Q-matrix is compiled to a greedy policy that
+     * the agents share, and their random choices are seeded
+     * by the map, so the reported score is the same on every
+     * run. The results are cached by map and policy if set
+     * in the config file, so that a map is only played again
+     * when the Q-matrix or the agent settings have changed.
+     */
+    private void runEvaluation()
+    {
+        FrozenPolicy policy;
+        try
+        {
+            policy = FrozenPolicy.compile(QLearningAgent.mapQMatrix());
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read Q-matrix: " + ex.getMessage());
+            return;
+        }
+        
+        EpisodeSource maps = new MapEnumerator();
+        int count = MapEnumerator.MAP_COUNT;
+        String mapSource = Config.getMapSource();
+        MapIndex index = null;
+        if (mapSource.equals("corpus"))
+        {
+            MapCorpus c = openMapCorpus();
+            if (c == null) return;
+            maps = c;
+            count = c.getMapCount();
+        }
+        if (mapSource.equals("mapfile"))
+        {
+            File file = new File(Config.getMapfile());
+            try
+            {
+                index = MapIndex.open(file);
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed to read map file " + file + ": " + ex.getMessage());
+                return;
+            }
+            if (index.getMapCount() == 0)
+            {
+                System.err.println("No maps in " + file);
+                index.close();
+                return;
+            }
+            maps = index;
+            count = index.getMapCount();
+        }
+        
+        AsyncEpisodeSink sink = createEpisodeSink();
+        OracleCache oracle = openOracleCache();
+        ResultCache results = openResultCache(policy);
+        
+        ParallelSimulator ps = new ParallelSimulator(Config.getThreads(), Config.getQSharing(), ACTION_LIMIT);
+        ps.setPolicy(policy);
+        ps.setSink(sink);
+        ps.setOracle(oracle);
+        ps.setResultCache(results);
+        RunStatistics stats = ps.run(null, maps, count);
+        
+        sink.close();
+        if (index != null) index.close();
+        saveOracleCache(oracle);
+        if (results != null)
+        {
+            System.out.println("Reused results: " + results.getHits() + " of " + (results.getHits() + results.getMisses()));
+            try
+            {
+                results.save();
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Failed to write result cache: " + ex.getMessage());
+            }
+        }
+        System.out.print(stats.getReport());
+        if (mapSource.equals("corpus"))
+        {
+            System.out.println("Average score on the map corpus: " + stats.getMean());
+        }
+        else if (mapSource.equals("mapfile"))
+        {
+            System.out.println("Average score on the map file: " + stats.getMean());
+        }
+        else
+        {
+            //All maps are equally likely, so the mean is the expected score.
+            System.out.println("Expected score: " + stats.getMean());
+        }
+    }
     
     /**
-     * Starts the program in simulator mode
-     * with random maps.
+     * Generates a corpus of random maps with the size, pit
+     * density, seeds and number of maps set in the config
+     * file, and writes it to the corpus file.
      */
-    private void runSimulator()
+    private void runCorpusGenerator()
+    {
+        File file = new File(Config.getValue("CorpusFile", "maps.bin"));
+        int count = Config.getInt("CorpusMaps", 1000000);
+        int firstSeed = Config.getInt("CorpusFirstSeed", 0);
+        
+        long start = System.nanoTime();
+        try
+        {
+            MapCorpus.generate(file, Config.getWorldSize(), Config.getPitDensity(), firstSeed, count, Config.getThreads());
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to write map corpus " + file);
+            return;
+        }
+        long ms = (System.nanoTime() - start) / 1000000;
+        System.out.println("Wrote " + count + " maps to " + file + " (" + file.length() + " bytes) in " + ms + " ms");
+    }
+    
+    /**
+     * Opens the map corpus file set in the config file.
+     * 
+     * @return The map corpus, or null if it could not be read
+     */
+    private MapCorpus openMapCorpus()
+    {
+        File file = new File(Config.getValue("CorpusFile", "maps.bin"));
+        try
+        {
+            MapCorpus corpus = new MapCorpus(file);
+            if (corpus.getMapCount() > 0) return corpus;
+            System.err.println("Map corpus " + file + " has no maps");
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read map corpus " + file + ": " + ex.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * Reports how many states the Q-matrix learned without
+     * symmetry reduction has, how many distinct states they
+     * reduce to with each reduction, and the size of the
+     * Q-matrix learned with each reduction.
+     */
+    private void runSymmetryReport()
+    {
+        String[] names = {"none", "egocentric", "mirror"};
+        QTable Q;
+        try
+        {
+            Q = QJournal.load(new File(QLearningAgent.getQFilePath(StateEncoder.SYMMETRY_NONE)));
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read Q-Matrix");
+            return;
+        }
+        
+        System.out.println("Symmetry    States in " + QLearningAgent.getQFilePath(StateEncoder.SYMMETRY_NONE) + "    Reduction    Learned states");
+        for (int symmetry = 0; symmetry < names.length; symmetry++)
+        {
+            OpenAddressingQTable reduced = new OpenAddressingQTable(Q.size());
+            for (int row = 0; row < Q.size(); row++)
+            {
+                reduced.getRow(StateEncoder.canonicalize(Q.getState(row), symmetry) & StateEncoder.STATE_MASK);
+            }
+            
+            String learned = "-";
+            File file = new File(QLearningAgent.getQFilePath(symmetry));
+            if (file.exists())
+            {
+                try
+                {
+                    learned = "" + QJournal.load(file).size();
+                }
+                catch (IOException ex)
+                {
+                    learned = "unreadable";
+                }
+            }
+            
+            double factor = reduced.size() > 0 ? (double)Q.size() / reduced.size() : 1;
+            System.out.println(String.format("%-11s %16d %12.2fx %17s", names[symmetry], reduced.size(), factor, learned));
+        }
+    }
+    
+    /**
+     * Compares the Q-matrix with copies of its values stored
+     * as floats and as shorts with the fraction bits set in
+     * the config file. For each precision it reports the
+     * record size in the Q-matrix file, how many states keep
+     * the same best actions, and the expected score on every
+     * random map.
+     */
+    private void runPrecisionComparison()
+    {
+        String[] names = {"double", "float", "short"};
+        int bits = QLearningAgent.getFractionBits();
+        QTable Q;
+        try
+        {
+            Q = QJournal.load(new File(QLearningAgent.getQFilePath(QLearningAgent.getSymmetry())));
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read Q-Matrix");
+            return;
+        }
+        
+        FrozenPolicy reference = FrozenPolicy.compile(Q);
+        double referenceScore = 0;
+        System.out.println("Precision    Record bytes    Same best actions    Expected score    Difference");
+        for (int type = 0; type < names.length; type++)
+        {
+            QTable quantized = type == QTableFile.VALUE_DOUBLE ? Q : new QuantizedQTable(Q, type, bits);
+            FrozenPolicy policy = FrozenPolicy.compile(quantized);
+            
+            int same = 0;
+            for (int row = 0; row < Q.size(); row++)
+            {
+                long state = Q.getState(row);
+                if (policy.getActions(state) == reference.getActions(state)) same++;
+            }
+            
+            ParallelSimulator ps = new ParallelSimulator(Config.getThreads(), Config.getQSharing(), ACTION_LIMIT);
+            ps.setPolicy(policy);
+            double score = ps.run(null, new MapEnumerator(), MapEnumerator.MAP_COUNT).getMean();
+            if (type == QTableFile.VALUE_DOUBLE) referenceScore = score;
+            
+            String name = type == QTableFile.VALUE_SHORT ? names[type] + "/" + bits : names[type];
+            double agreement = Q.size() > 0 ? 100.0 * same / Q.size() : 100;
+            System.out.println(String.format("%-12s %12d %19.3f%% %17.4f %13.4f", name, QTableFile.recordSize(type), agreement, score, score - referenceScore));
+        }
+    }
+    
+    /**
+     * Creates the sink that simulation results are reported
+     * to, as set in the config file: an optional episode log
+     * and an optional progress summary on the console.
+     * 
+     * @return Episode sink
+     */
+    private AsyncEpisodeSink createEpisodeSink()
+    {
+        ArrayList<EpisodeSink> sinks = new ArrayList<EpisodeSink>();
+        
+        int interval = Config.getInt("SummaryInterval", 5000);
+        if (interval > 0)
+        {
+            sinks.add(new ConsoleSummarySink(interval, ACTION_LIMIT));
+        }
+        
+        String log = Config.getValue("EpisodeLog", "none");
+        File file = new File(Config.getValue("EpisodeLogFile", "episodes.csv"));
+        try
+        {
+            EpisodeSink logSink = null;
+            if (log.equalsIgnoreCase("csv")) logSink = new CsvEpisodeSink(file);
+            if (log.equalsIgnoreCase("binary")) logSink = new BinaryEpisodeSink(file);
+            if (logSink != null)
+            {
+                sinks.add(new SamplingEpisodeSink(logSink,
+                        Config.getInt("EpisodeLogEvery", 1),
+                        Config.getInt("EpisodeLogBelow", Integer.MIN_VALUE),
+                        Config.getInt("EpisodeLogAbove", Integer.MAX_VALUE)));
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to create episode log " + file);
+        }
+        
+        return new AsyncEpisodeSink(sinks);
+    }
+    
+    /**
+     * Opens the cache of the oracle's best scores set in the
+     * config file, so that the regret of the episodes is
+     * reported.
+     * 
+     * @return Oracle cache, or null if it is turned off or could not be read
+     */
+    private OracleCache openOracleCache()
     {
-        HashMap<QLearningAgent.State, double[]> Q = QLearningAgent.readQMatrix();
+        String name = Config.getValue("OracleFile", "");
+        if (name.isEmpty()) return null;
         
-        double totScore = 0;
-        for (int i = 0; i < COUNT; i++)
+        File file = new File(name);
+        try
+        {
+            return new OracleCache(file, ACTION_LIMIT);
+        }
+        catch (IOException ex)
         {
-            WorldMap w = MapGenerator.getRandomMap(i);
-            totScore += (double)runSimulation(i, w.generateWorld(), Q);
+            System.err.println("Failed to read oracle cache " + file + ": " + ex.getMessage());
+            return null;
         }
-        totScore = totScore / (double)COUNT;
-        System.out.println("Average score: " + totScore);
+    }
+    
+    /**
+     * Opens the cache of evaluation results set in the config
+     * file, for the results of a policy played with the
+     * current agent settings.
+     * 
+     * @param policy Compiled policy
+     * @return Result cache, or null if it is turned off or could not be read
+     */
+    private ResultCache openResultCache(FrozenPolicy policy)
+    {
+        String name = Config.getValue("ResultFile", "");
+        if (name.isEmpty()) return null;
         
-        QLearningAgent.writeQMatrix(Q);
+        File file = new File(name);
+        long runKey = ResultCache.getRunKey(policy.fingerprint(), QLearningAgent.getSymmetry(), ACTION_LIMIT);
+        try
+        {
+            return new ResultCache(file, runKey);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to read result cache " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Saves the maps the oracle has solved.
+     * 
+     * @param oracle Oracle cache, or null for none
+     */
+    private void saveOracleCache(OracleCache oracle)
+    {
+        if (oracle == null) return;
+        try
+        {
+            oracle.save();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to write oracle cache: " + ex.getMessage());
+        }
     }
     
     /**
      * Runs the solver agent for the specified Wumpus
      * World.
      * 
+     * @param index Episode index
      * @param w Wumpus World
-     * @return Achieved score
+     * @param Q Q-table to learn from
+     * @param sink Sink that receives the result
+     * @param oracle Oracle cache for the regret, or null for none
+     * @param stats Statistics to add the result to
      */
-    private int runSimulation(int index, World w, HashMap<QLearningAgent.State, double[]> Q)
+    private void runSimulation(int index, World w, QTable Q, EpisodeSink sink, OracleCache oracle, RunStatistics stats)
     {
+        //Solve the world before it is played
+        int best = oracle != null ? oracle.getBestScore(w) : 0;
         int actions = 0;
         Agent a = new MyAgent(w, Q);
         while (!w.gameOver())
@@ -123,7 +712,16 @@ public class WumpusWorld {
                 break;
         }
         int score = w.getScore();
-        System.out.println("Simulation " + index + " ended after " + actions + " actions. Score " + score);
-        return score;
+        int outcome = EpisodeOutcome.get(w);
+        stats.add(score, actions, outcome);
+        if (oracle != null) stats.addRegret(best, score);
+        try
+        {
+            sink.episodeEnded(index, score, actions, outcome);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Failed to write episode log");
+        }
     }
 }